@@ -0,0 +1,112 @@
+package com.sai.tools.k8s;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Properties;
+
+/**
+ * Synthetic Spring Boot property sets, generated on the fly so that the benchmarks need no checked-in data.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * A property set shaped like a real service configuration: dotted, dashed and indexed keys spread over a few
+     * dozen groups, one value in five referencing another property.
+     *
+     * @param seed varies the values (not the keys), the way a profile overrides the base file.
+     */
+    static Properties properties(final int keys, final String seed) {
+        Properties properties = new Properties();
+        for (int i = 0; i < keys; i++) {
+            String key = "service.group-" + (i % 40) + ".component" + (i % 7) + ".setting-" + i;
+            if (i % 11 == 0) {
+                key = key + ".hosts[" + (i % 3) + "]";
+            }
+            String value = i % 5 == 0
+                    ? "${service.group-" + ((i + 1) % 40) + ".base-url}/" + seed + "/path-" + i
+                    : seed + "-value-" + i;
+            properties.setProperty(key, value);
+        }
+        properties.setProperty("server.port", "8080");
+        return properties;
+    }
+
+    /**
+     * Writes an <code>application.properties</code> with the given number of keys and one
+     * <code>application-envN.properties</code> per environment overriding a tenth of them.
+     */
+    static void writeResources(final Path resourcesDirectory, final int environments, final int keys) {
+        Properties base = properties(keys, "base");
+        try {
+            Files.createDirectories(resourcesDirectory);
+            store(base, resourcesDirectory.resolve("application.properties"));
+            for (int env = 0; env < environments; env++) {
+                Properties overrides = new Properties();
+                Properties values = properties(keys, "env" + env);
+                int i = 0;
+                for (String key : values.stringPropertyNames()) {
+                    if (i++ % 10 == 0) {
+                        overrides.setProperty(key, values.getProperty(key));
+                    }
+                }
+                store(overrides, resourcesDirectory.resolve("application-env" + env + ".properties"));
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * A YAML-ish template of the given number of lines, every other line holding a placeholder.
+     */
+    static String template(final int lines) {
+        StringBuilder template = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            if (i % 2 == 0) {
+                template.append("  key").append(i).append(": ${service.group-").append(i % 40).append(".component").append(i % 7)
+                        .append(".setting-").append(i).append("}\n");
+            } else {
+                template.append("  literal").append(i).append(": some literal text of a typical descriptor line\n");
+            }
+        }
+        return template.toString();
+    }
+
+    static void delete(final Path directory) {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(final Path dir, final IOException exc) throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static void store(final Properties properties, final Path file) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            properties.store(out, null);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.sai.tools.k8s;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stages of {@link K8sDeploymentDescriptorGenerator#generate(GenerationSettings)}, and the whole of it, over
+ * synthetic property files written to a temporary directory. Narrow a run down with <code>-p</code>, for example
+ * <code>-p environments=40 -p keys=15000</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GenerationPipelineBenchmark {
+
+    @Param({"1", "10", "100"})
+    private int environments;
+
+    @Param({"10", "1000", "20000"})
+    private int keys;
+
+    private Path workDirectory;
+    private GenerationSettings settings;
+    private Map<String, Properties> propertySources;
+    private LayeredProperties base;
+    private LayeredProperties merged;
+    private CompiledTemplate configMapTemplate;
+    private CompiledTemplate deploymentTemplate;
+    private GenerationCache sharedCache;
+    private ConfigMapLayout layout;
+    private String configMaps;
+    private String previousConfigMaps;
+    private CompiledTemplate ingressTemplate;
+    private Path metadataFile;
+    private ServiceMetadata serviceMetadata;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workDirectory = Files.createTempDirectory("k8s-utils-benchmark");
+        Fixtures.writeResources(workDirectory.resolve("resources"), environments, keys);
+        settings = new GenerationSettings("benchmark-service", "1.0.0", "registry/benchmark-service")
+                .resourcesDirectory(workDirectory.resolve("resources"))
+                .outputDirectory(workDirectory.resolve("k8s"))
+                .incremental(false);
+        propertySources = K8sDeploymentDescriptorGenerator.readPropertySources(settings);
+        base = LayeredProperties.of(K8sDeploymentDescriptorGenerator.normalize(propertySources.get("")));
+        merged = K8sDeploymentDescriptorGenerator.mergeEnvironment(settings, base.with(K8sDeploymentDescriptorGenerator.normalize(propertySources.get("env0"))));
+        configMapTemplate = CompiledTemplate.fromClasspath("configmap-template.yml");
+        deploymentTemplate = CompiledTemplate.fromClasspath("service-deployment-template.yml");
+        sharedCache = new GenerationCache();
+        layout = K8sDeploymentDescriptorGenerator.configMapLayout(settings, merged, merged::toSortedMap);
+        configMaps = K8sDeploymentDescriptorGenerator.renderConfigMaps(settings, merged, configMapTemplate, layout);
+        LayeredProperties previous = merged.with(Collections.singletonMap("removed_since", "previous build"));
+        previousConfigMaps = K8sDeploymentDescriptorGenerator.renderConfigMaps(settings, previous, configMapTemplate,
+                K8sDeploymentDescriptorGenerator.configMapLayout(settings, previous, previous::toSortedMap));
+        // The service metadata generate-ingress reads, left behind by generate-deployment.
+        K8sDeploymentDescriptorGenerator.generate(settings);
+        ingressTemplate = CompiledTemplate.fromClasspath(K8sIngressFileGenerator.DEFAULT_TEMPLATE);
+        metadataFile = ServiceMetadata.file(workDirectory.resolve("k8s"), "benchmark-service");
+        serviceMetadata = ServiceMetadata.load(metadataFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fixtures.delete(workDirectory);
+    }
+
+    @Benchmark
+    public Map<String, Properties> loadPropertySources() throws IOException {
+        return K8sDeploymentDescriptorGenerator.readPropertySources(settings);
+    }
+
+    @Benchmark
+    public Map<Object, Object> normalizeBase() {
+        return K8sDeploymentDescriptorGenerator.normalize(propertySources.get(""));
+    }
+
+    @Benchmark
+    public LayeredProperties mergeEnvironment() {
+        return K8sDeploymentDescriptorGenerator.mergeEnvironment(settings, base.with(K8sDeploymentDescriptorGenerator.normalize(propertySources.get("env0"))));
+    }
+
+    @Benchmark
+    public String renderConfigMap() {
+        return K8sDeploymentDescriptorGenerator.renderConfigMaps(settings, merged, configMapTemplate, K8sDeploymentDescriptorGenerator.configMapLayout(settings, merged, merged::toSortedMap));
+    }
+
+    @Benchmark
+    public String renderDeployment() {
+        return K8sDeploymentDescriptorGenerator.render(settings, merged, deploymentTemplate, layout,
+                K8sDeploymentDescriptorGenerator.containerResources(settings, merged));
+    }
+
+    @Benchmark
+    public ManifestValidator.Findings validateConfigMap() {
+        ManifestValidator.Findings findings = new ManifestValidator.Findings();
+        ManifestValidator.validate("configmap.yml", configMaps, findings);
+        return findings;
+    }
+
+    /**
+     * The ConfigMaps of the previous build had one more key.
+     */
+    @Benchmark
+    public ManifestDiff diffConfigMap() {
+        return ManifestDiff.between(previousConfigMaps, configMaps);
+    }
+
+    /**
+     * The Ingress of every environment, rendered and written to the bytes already there, so only compared.
+     */
+    @Benchmark
+    public int renderIngress() {
+        return K8sIngressFileGenerator.generate(Collections.singletonList(serviceMetadata), ingressTemplate,
+                workDirectory.resolve("ingress"), new OutputWriter());
+    }
+
+    /**
+     * What <code>generate-ingress</code> does for the module: reads its service metadata, then renders and writes the
+     * Ingress of every environment.
+     */
+    @Benchmark
+    public int generateIngress() {
+        return K8sIngressFileGenerator.generate(Collections.singletonList(ServiceMetadata.load(metadataFile)), ingressTemplate,
+                workDirectory.resolve("ingress"), new OutputWriter());
+    }
+
+    @Benchmark
+    public GenerationReport generate() throws Exception {
+        return K8sDeploymentDescriptorGenerator.generate(settings);
+    }
+
+    /**
+     * Another module of the same build, with the same property sources: the templates and normalised properties come
+     * from the session cache.
+     */
+    @Benchmark
+    public GenerationReport generateWithSharedCache() throws Exception {
+        return K8sDeploymentDescriptorGenerator.generate(settings, sharedCache);
+    }
+}
@@ -0,0 +1,54 @@
+package com.sai.tools.k8s;
+
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The regex and String.replace based normalisation that {@link PropertiesNormalizer} used to do, kept as the
+ * baseline of {@link PropertiesNormalizerBenchmark}.
+ */
+final class LegacyPropertiesNormalizer {
+
+    private static final Pattern REGEX_EXTRACT_VARIABLE_NAMES_FROM_TEMPLATE = Pattern.compile("\\{(.*?)\\}");
+
+    private LegacyPropertiesNormalizer() {
+    }
+
+    static String toEnvironmentVariableFriendlyString(final String key) {
+        return key.replace(".", "_").replace("-", "").replace("[", "_").replace("]", "");
+    }
+
+    static Properties toEnvironmentVariableFriendlyProperties(final Properties properties) {
+        Properties normalised = new Properties();
+        properties.forEach((key, value) -> {
+            if (!key.toString().equalsIgnoreCase("random")) {
+                String normalisedKey = toEnvironmentVariableFriendlyString(key.toString());
+                Set<String> actualVariables = extractVariableNames(value.toString());
+                if (!actualVariables.isEmpty()) {
+                    String normalisedValue = value.toString();
+                    for (String actualVariable : actualVariables) {
+                        normalisedValue = normalisedValue.replace(actualVariable, toEnvironmentVariableFriendlyString(actualVariable));
+                    }
+                    normalised.put(normalisedKey, normalisedValue);
+                } else {
+                    normalised.put(normalisedKey, value);
+                }
+            } else {
+                normalised.put(key, value);
+            }
+        });
+        return normalised;
+    }
+
+    static Set<String> extractVariableNames(final String value) {
+        Matcher matchPattern = REGEX_EXTRACT_VARIABLE_NAMES_FROM_TEMPLATE.matcher(value);
+        Set<String> vars = new HashSet<>();
+        while (matchPattern.find()) {
+            vars.add(matchPattern.group(1));
+        }
+        return vars;
+    }
+}
@@ -0,0 +1,49 @@
+package com.sai.tools.k8s;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link PropertiesNormalizer} against the regex based {@link LegacyPropertiesNormalizer}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PropertiesNormalizerBenchmark {
+
+    @Param({"100", "10000"})
+    private int keys;
+
+    private Properties properties;
+
+    @Setup
+    public void setUp() {
+        properties = Fixtures.properties(keys, "base");
+    }
+
+    @Benchmark
+    public Properties legacy() {
+        return LegacyPropertiesNormalizer.toEnvironmentVariableFriendlyProperties(properties);
+    }
+
+    @Benchmark
+    public Map<Object, Object> current() {
+        return PropertiesNormalizer.toEnvironmentVariableFriendlyProperties(properties);
+    }
+}
@@ -0,0 +1,70 @@
+package com.sai.tools.k8s;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders templates of growing size with {@link CompiledTemplate}, against the String.replace loop it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateRenderingBenchmark {
+
+    @Param({"50", "500", "5000"})
+    private int templateLines;
+
+    @Param({"1000"})
+    private int keys;
+
+    private String source;
+    private Set<String> variables;
+    private CompiledTemplate template;
+    private Map<Object, Object> context;
+
+    @Setup
+    public void setUp() {
+        source = Fixtures.template(templateLines);
+        variables = PropertiesNormalizer.extractVariableNames(source);
+        template = CompiledTemplate.compile("benchmark", source);
+        Properties properties = Fixtures.properties(keys, "base");
+        context = new HashMap<>(properties);
+    }
+
+    @Benchmark
+    public String compiled() {
+        return template.render(context::get);
+    }
+
+    @Benchmark
+    public String compileAndRender() {
+        return CompiledTemplate.compile("benchmark", source).render(context::get);
+    }
+
+    @Benchmark
+    public String replaceLoop() {
+        String generated = source;
+        for (String variable : variables) {
+            generated = generated.replace("${" + variable + "}", context.get(variable) + "");
+        }
+        return generated;
+    }
+}
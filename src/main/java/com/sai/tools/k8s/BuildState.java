@@ -0,0 +1,80 @@
+package com.sai.tools.k8s;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * The manifest of input hashes that produced the files under <code>target/k8s</code>. A run compares the hashes of
+ * its own inputs against the manifest left behind by the previous run and only re-renders what changed.
+ *
+ * @author Sai.
+ */
+final class BuildState {
+
+    static final String FILE_NAME = ".k8s-build-state.properties";
+
+    private final Properties hashes;
+
+    private BuildState(final Properties hashes) {
+        this.hashes = hashes;
+    }
+
+    static BuildState empty() {
+        return new BuildState(new Properties());
+    }
+
+    static BuildState load(final Path outputDir) {
+        Path file = outputDir.resolve(FILE_NAME);
+        Properties hashes = new Properties();
+        if (Files.isRegularFile(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                hashes.load(in);
+            } catch (IOException | IllegalArgumentException ex) {
+                // A corrupt manifest just means everything is regenerated.
+                hashes.clear();
+            }
+        }
+        return new BuildState(hashes);
+    }
+
+    static void delete(final Path outputDir) {
+        try {
+            Files.deleteIfExists(outputDir.resolve(FILE_NAME));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    synchronized void put(final String key, final String hash) {
+        hashes.setProperty(key, hash);
+    }
+
+    synchronized void remove(final String key) {
+        hashes.remove(key);
+    }
+
+    synchronized String get(final String key) {
+        return hashes.getProperty(key);
+    }
+
+    boolean isUnchanged(final BuildState current, final String key) {
+        String hash = current.get(key);
+        return hash != null && hash.equals(get(key));
+    }
+
+    synchronized void store(final Path outputDir) {
+        try {
+            Files.createDirectories(outputDir);
+            try (OutputStream out = Files.newOutputStream(outputDir.resolve(FILE_NAME))) {
+                hashes.store(out, "Inputs of the last k8s-utils generation, do not edit");
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,458 @@
+package com.sai.tools.k8s;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * How an environment's properties are laid out over ConfigMaps: one, or several size bounded shards, each with the
+ * plain properties under <code>data</code> and, optionally, the large values gzip compressed under
+ * <code>binaryData</code>. Properties are assigned to shards in key order, so adding a property only moves the
+ * properties that sort after it.
+ *
+ * @author Sai.
+ */
+final class ConfigMapLayout {
+
+    static final String CONFIG_MODE_ENV = "env";
+    static final String CONFIG_MODE_FILE = "file";
+    static final String CONFIG_MODE_AUTO = "auto";
+
+    static final String COMPRESSED_SUFFIX = ".gz";
+    static final String PROPERTIES_FILE = "application.properties";
+    /**
+     * Where the main container finds the <code>application.properties</code> of each shard, in a directory per shard.
+     */
+    static final String PROPERTIES_FILE_PATH = "/config/app/";
+    /**
+     * Where the main container finds the expanded values, one file per property, imported by Spring as a config tree.
+     */
+    static final String EXPANDED_VALUES_PATH = "/config/expanded/";
+
+    private static final String EXPAND_COMMAND = "set -e; for f in /compressed/*/*" + COMPRESSED_SUFFIX
+            + "; do gunzip -c \\\"$f\\\" > \\\"/expanded/$(basename \\\"$f\\\" " + COMPRESSED_SUFFIX + ")\\\"; done";
+
+    private static final Pattern INDEX = Pattern.compile("\\[([0-9]+)]");
+    private static final Pattern CONFIG_MAP_KEY = Pattern.compile("[-._a-zA-Z0-9]+");
+
+    static final String IMMUTABLE_LABEL = "k8s-utils/immutable-config";
+    static final String GENERATION_LABEL = "k8s-utils/config-generation";
+
+    private final List<Shard> shards;
+    private final boolean propertiesFile;
+    private final int propertyCount;
+    private final boolean immutable;
+    private final String generation;
+
+    private ConfigMapLayout(final List<Shard> shards, final boolean propertiesFile, final int propertyCount, final boolean immutable) {
+        this.shards = Collections.unmodifiableList(shards);
+        this.propertiesFile = propertiesFile;
+        this.propertyCount = propertyCount;
+        this.immutable = immutable;
+        if (immutable) {
+            for (Shard shard : shards) {
+                shard.name += "-" + ContentHash.of(shard.renderData(), shard.renderBinaryData()).substring(0, 10);
+            }
+            this.generation = ContentHash.of(shards.stream().map(Shard::name).toArray(String[]::new)).substring(0, 16);
+        } else {
+            this.generation = null;
+        }
+    }
+
+    static ConfigMapLayout of(final String name, final SortedMap<Object, Object> properties, final int maxBytes, final int compressAbove) {
+        return of(name, properties, maxBytes, compressAbove, false);
+    }
+
+    static ConfigMapLayout of(final String name, final SortedMap<Object, Object> properties, final int maxBytes, final int compressAbove,
+                              final boolean immutable) {
+        return of(name, properties, maxBytes, compressAbove, immutable, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * @param maxBytes      upper bound of the key and value bytes of a shard, 0 for a single ConfigMap.
+     * @param compressAbove values larger than this many bytes are compressed, 0 to compress nothing.
+     * @param immutable     whether the ConfigMaps are immutable, named after a hash of their contents so that any change
+     *                      makes a new ConfigMap, and a new rollout of the Deployment referencing it.
+     * @param propertyNames the property names as written, by normalised key, to name the files of the compressed values.
+     */
+    static ConfigMapLayout of(final String name, final SortedMap<Object, Object> properties, final int maxBytes, final int compressAbove,
+                              final boolean immutable, final Map<String, String> propertyNames) {
+        List<Shard> shards = new ArrayList<>();
+        Shard shard = new Shard(name);
+        shards.add(shard);
+        for (Map.Entry<Object, Object> property : properties.entrySet()) {
+            String key = property.getKey().toString();
+            String value = property.getValue().toString();
+            byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+            boolean compressed = compressAbove > 0 && valueBytes.length > compressAbove;
+            if (compressed) {
+                key = compressedFileName(key, propertyNames.get(key));
+                value = Base64.getEncoder().encodeToString(gzip(valueBytes));
+                valueBytes = value.getBytes(StandardCharsets.US_ASCII);
+            }
+            int bytes = key.getBytes(StandardCharsets.UTF_8).length + valueBytes.length;
+            if (maxBytes > 0 && bytes > maxBytes) {
+                throw new IllegalArgumentException("Property " + property.getKey() + " alone takes " + bytes + " bytes, more than the "
+                        + maxBytes + " bytes allowed per ConfigMap" + (compressed ? "" : "; consider compressing the large values"));
+            }
+            if (maxBytes > 0 && shard.bytes + bytes > maxBytes) {
+                shard = new Shard(name + "-" + shards.size());
+                shards.add(shard);
+            }
+            (compressed ? shard.binaryData : shard.data).add(new String[]{key, value});
+            shard.bytes += bytes;
+        }
+        return new ConfigMapLayout(shards, false, properties.size(), immutable);
+    }
+
+    /**
+     * The key of a compressed value, named after its property so that the config tree binds it as written: list
+     * indexes become dotted, as <code>my.list[0]</code> and <code>my.list.0</code> bind alike. A property whose name
+     * still is no valid ConfigMap key, or is unknown, is named after its environment variable instead, the way Spring
+     * binds it: <code>MY_CERT_PEM</code> is <code>my.cert.pem</code>.
+     */
+    static String compressedFileName(final String key, final String propertyName) {
+        String fileName = propertyName == null ? null : INDEX.matcher(propertyName).replaceAll(".$1");
+        if (fileName == null || !CONFIG_MAP_KEY.matcher(fileName).matches()) {
+            fileName = key.replace('_', '.').toLowerCase(Locale.ROOT);
+        }
+        return fileName + COMPRESSED_SUFFIX;
+    }
+
+    /**
+     * Lays the properties out as an <code>application.properties</code> file per shard, mounted into the container
+     * rather than passed as environment variables, so the keys reach Spring as written.
+     *
+     * @param maxBytes  upper bound of the file size of a shard, 0 for a single ConfigMap.
+     * @param immutable as in {@link #of(String, SortedMap, int, int, boolean)}.
+     */
+    static ConfigMapLayout propertiesFile(final String name, final SortedMap<Object, Object> properties, final int maxBytes,
+                                          final boolean immutable) {
+        List<Shard> shards = new ArrayList<>();
+        List<StringBuilder> files = new ArrayList<>();
+        Shard shard = new Shard(name);
+        StringBuilder file = new StringBuilder();
+        shards.add(shard);
+        files.add(file);
+        shard.bytes = PROPERTIES_FILE.length();
+        for (Map.Entry<Object, Object> property : properties.entrySet()) {
+            // Escaped down to ASCII, so the length is the number of bytes.
+            String line = propertyLine(property.getKey().toString(), property.getValue().toString());
+            if (maxBytes > 0 && PROPERTIES_FILE.length() + line.length() > maxBytes) {
+                throw new IllegalArgumentException("Property " + property.getKey() + " alone takes " + line.length()
+                        + " bytes, more than the " + maxBytes + " bytes allowed per ConfigMap");
+            }
+            if (maxBytes > 0 && shard.bytes + line.length() > maxBytes) {
+                shard = new Shard(name + "-" + shards.size());
+                file = new StringBuilder();
+                shards.add(shard);
+                files.add(file);
+                shard.bytes = PROPERTIES_FILE.length();
+            }
+            file.append(line);
+            shard.bytes += line.length();
+        }
+        for (int i = 0; i < shards.size(); i++) {
+            shards.get(i).data.add(new String[]{PROPERTIES_FILE, files.get(i).toString()});
+            shards.get(i).literal = true;
+        }
+        return new ConfigMapLayout(shards, true, properties.size(), immutable);
+    }
+
+    /**
+     * Number of properties laid out.
+     */
+    int propertyCount() {
+        return propertyCount;
+    }
+
+    List<Shard> shards() {
+        return shards;
+    }
+
+    boolean hasCompressedValues() {
+        return shards.stream().anyMatch(Shard::hasCompressedValues);
+    }
+
+    boolean isImmutable() {
+        return immutable;
+    }
+
+    /**
+     * The <code>metadata.labels</code> of the ConfigMaps: immutable ones are labelled with their generation, a hash
+     * shared by all the shards rendered together, for pruning. Nothing for mutable ones.
+     */
+    String labels(final String serviceName) {
+        if (!immutable) {
+            return "";
+        }
+        return "  labels:\n"
+                + "    app: " + serviceName + "\n"
+                + "    " + IMMUTABLE_LABEL + ": \"true\"\n"
+                + "    " + GENERATION_LABEL + ": \"" + generation + "\"\n";
+    }
+
+    /**
+     * The <code>immutable</code> field of the ConfigMaps, or nothing for mutable ones.
+     */
+    String immutableField() {
+        return immutable ? "immutable: true\n" : "";
+    }
+
+    List<Integer> shardSizes() {
+        List<Integer> sizes = new ArrayList<>();
+        for (Shard shard : shards) {
+            sizes.add(shard.bytes);
+        }
+        return sizes;
+    }
+
+    /**
+     * The <code>envFrom</code> of the main container, with an entry per shard, or nothing when the properties are
+     * mounted as files.
+     */
+    String envFrom() {
+        if (propertiesFile) {
+            return "";
+        }
+        StringBuilder out = new StringBuilder("        envFrom:\n");
+        for (Shard shard : shards) {
+            out.append("        - configMapRef:\n")
+                    .append("            name: ").append(shard.name).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * The init container expanding the compressed values, or nothing when there are none.
+     */
+    String initContainers(final String image) {
+        if (!hasCompressedValues()) {
+            return "";
+        }
+        StringBuilder out = new StringBuilder()
+                .append("      initContainers:\n")
+                .append("      - name: expand-config\n")
+                .append("        image: ").append(image).append('\n')
+                .append("        command: [\"sh\", \"-c\", \"").append(EXPAND_COMMAND).append("\"]\n")
+                .append("        volumeMounts:\n");
+        for (int i = 0; i < shards.size(); i++) {
+            if (shards.get(i).hasCompressedValues()) {
+                out.append("        - mountPath: /compressed/").append(i).append('\n')
+                        .append("          name: compressed-config-").append(i).append('\n');
+            }
+        }
+        return out.append("        - mountPath: /expanded\n")
+                .append("          name: expanded-config\n")
+                .toString();
+    }
+
+    /**
+     * The <code>env</code> entries of the main container pointing Spring at the mounted properties files, or importing
+     * the expanded values; none when there are neither.
+     */
+    Map<String, String> containerEnv() {
+        if (propertiesFile) {
+            List<String> locations = new ArrayList<>();
+            for (int i = 0; i < shards.size(); i++) {
+                locations.add("file:" + PROPERTIES_FILE_PATH + i + "/" + PROPERTIES_FILE);
+            }
+            return Collections.singletonMap("SPRING_CONFIG_ADDITIONAL_LOCATION", String.join(",", locations));
+        }
+        if (!hasCompressedValues()) {
+            return Collections.emptyMap();
+        }
+        return Collections.singletonMap("SPRING_CONFIG_IMPORT", "optional:configtree:" + EXPANDED_VALUES_PATH);
+    }
+
+    String volumeMounts() {
+        if (propertiesFile) {
+            StringBuilder out = new StringBuilder();
+            for (int i = 0; i < shards.size(); i++) {
+                out.append("        - mountPath: ").append(PROPERTIES_FILE_PATH).append(i).append("/\n")
+                        .append("          name: app-config-").append(i).append('\n')
+                        .append("          readOnly: true\n");
+            }
+            return out.toString();
+        }
+        if (!hasCompressedValues()) {
+            return "";
+        }
+        return "        - mountPath: " + EXPANDED_VALUES_PATH + "\n"
+                + "          name: expanded-config\n";
+    }
+
+    String volumes() {
+        if (propertiesFile) {
+            StringBuilder out = new StringBuilder();
+            for (int i = 0; i < shards.size(); i++) {
+                out.append("      - name: app-config-").append(i).append('\n')
+                        .append("        configMap:\n")
+                        .append("          name: ").append(shards.get(i).name).append('\n');
+            }
+            return out.toString();
+        }
+        if (!hasCompressedValues()) {
+            return "";
+        }
+        StringBuilder out = new StringBuilder()
+                .append("      - name: expanded-config\n")
+                .append("        emptyDir: {}\n");
+        for (int i = 0; i < shards.size(); i++) {
+            if (shards.get(i).hasCompressedValues()) {
+                out.append("      - name: compressed-config-").append(i).append('\n')
+                        .append("        configMap:\n")
+                        .append("          name: ").append(shards.get(i).name).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * A line of an <code>application.properties</code> file, escaped as {@link java.util.Properties#store} would.
+     */
+    static String propertyLine(final String key, final String value) {
+        return escape(key, true) + "=" + escape(value, false) + "\n";
+    }
+
+    /**
+     * Escapes a key or a value the way {@link java.util.Properties#store} does, non-ASCII characters included, so that
+     * the file reads back the same whatever encoding it is read with.
+     */
+    private static String escape(final String text, final boolean key) {
+        StringBuilder out = new StringBuilder(text.length() + 8);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\f':
+                    out.append("\\f");
+                    break;
+                case ' ':
+                    out.append(key || i == 0 ? "\\ " : " ");
+                    break;
+                case '=':
+                case ':':
+                case '#':
+                case '!':
+                    if (key) {
+                        out.append('\\');
+                    }
+                    out.append(c);
+                    break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.toString();
+    }
+
+    private static byte[] gzip(final byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * One ConfigMap of the layout.
+     */
+    static final class Shard {
+
+        private String name;
+        private final List<String[]> data = new ArrayList<>();
+        private final List<String[]> binaryData = new ArrayList<>();
+        private int bytes;
+        // Whether the data entries are whole files, rendered as literal blocks.
+        private boolean literal;
+
+        private Shard(final String name) {
+            this.name = name;
+        }
+
+        String name() {
+            return name;
+        }
+
+        boolean hasCompressedValues() {
+            return !binaryData.isEmpty();
+        }
+
+        /**
+         * The <code>data</code> block, including its heading, with one quoted YAML line per property, or a literal block
+         * per file. Nothing when every value was compressed.
+         */
+        String renderData() {
+            if (data.isEmpty()) {
+                return "";
+            }
+            if (literal) {
+                StringBuilder out = new StringBuilder("data:\n");
+                for (String[] entry : data) {
+                    out.append("  ").append(entry[0]).append(": |");
+                    for (String line : entry[1].split("\n")) {
+                        if (!line.isEmpty()) {
+                            out.append("\n    ").append(line);
+                        }
+                    }
+                }
+                return out.toString();
+            }
+            return "data:\n" + render(data, true);
+        }
+
+        /**
+         * The <code>binaryData</code> block, including its heading, or nothing when no value was compressed.
+         */
+        String renderBinaryData() {
+            if (binaryData.isEmpty()) {
+                return "";
+            }
+            return (data.isEmpty() ? "" : "\n") + "binaryData:\n" + render(binaryData, false);
+        }
+
+        private static String render(final List<String[]> entries, final boolean quoted) {
+            StringBuilder out = new StringBuilder();
+            for (String[] entry : entries) {
+                if (out.length() > 0) {
+                    out.append('\n');
+                }
+                out.append("  ").append(entry[0]).append(": ");
+                if (quoted) {
+                    out.append('"').append(entry[1]).append('"');
+                } else {
+                    out.append(entry[1]);
+                }
+            }
+            return out.toString();
+        }
+    }
+}
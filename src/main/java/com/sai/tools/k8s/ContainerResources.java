@@ -0,0 +1,213 @@
+package com.sai.tools.k8s;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The resources of an environment's container, its autoscaling, and the JVM flags derived from them. Every value comes
+ * from the plugin configuration, unless the environment's properties override it with the
+ * <code>k8s.*</code> property of the same meaning (for example <code>k8s.resources.limits.memory=2Gi</code> in
+ * <code>application-prod.properties</code>).
+ *
+ * @author Sai.
+ */
+final class ContainerResources {
+
+    static final String CPU_REQUEST = "k8s.resources.requests.cpu";
+    static final String CPU_LIMIT = "k8s.resources.limits.cpu";
+    static final String MEMORY_REQUEST = "k8s.resources.requests.memory";
+    static final String MEMORY_LIMIT = "k8s.resources.limits.memory";
+    static final String MIN_REPLICAS = "k8s.autoscaling.min-replicas";
+    static final String MAX_REPLICAS = "k8s.autoscaling.max-replicas";
+    static final String TARGET_CPU_UTILIZATION = "k8s.autoscaling.target-cpu-utilization";
+    static final String TARGET_MEMORY_UTILIZATION = "k8s.autoscaling.target-memory-utilization";
+    static final String MAX_RAM_PERCENTAGE = "k8s.jvm.max-ram-percentage";
+
+    /**
+     * Below this much memory, or two processors, the JVM does not consider itself a server class machine either.
+     */
+    private static final long SERIAL_GC_MEMORY_THRESHOLD = 1792L * 1024 * 1024;
+    private static final int DEFAULT_TARGET_CPU_UTILIZATION = 80;
+
+    private final String cpuRequest;
+    private final String cpuLimit;
+    private final String memoryRequest;
+    private final String memoryLimit;
+    private final int replicas;
+    private final int minReplicas;
+    private final int maxReplicas;
+    private final Integer targetCpuUtilization;
+    private final Integer targetMemoryUtilization;
+    private final String maxRamPercentage;
+
+    private ContainerResources(final GenerationSettings settings, final Function<String, Object> properties) {
+        this.cpuRequest = value(properties, CPU_REQUEST, settings.getCpuRequest());
+        this.cpuLimit = value(properties, CPU_LIMIT, settings.getCpuLimit());
+        this.memoryRequest = value(properties, MEMORY_REQUEST, settings.getMemoryRequest());
+        this.memoryLimit = value(properties, MEMORY_LIMIT, settings.getMemoryLimit());
+        this.replicas = settings.getReplicas();
+        this.maxReplicas = integer(properties, MAX_REPLICAS, settings.getMaxReplicas(), 0);
+        this.minReplicas = integer(properties, MIN_REPLICAS, settings.getMinReplicas(), replicas);
+        Integer cpuUtilization = integer(properties, TARGET_CPU_UTILIZATION, settings.getTargetCpuUtilization(), null);
+        this.targetMemoryUtilization = integer(properties, TARGET_MEMORY_UTILIZATION, settings.getTargetMemoryUtilization(), null);
+        this.targetCpuUtilization = cpuUtilization == null && targetMemoryUtilization == null ? Integer.valueOf(DEFAULT_TARGET_CPU_UTILIZATION) : cpuUtilization;
+        this.maxRamPercentage = value(properties, MAX_RAM_PERCENTAGE, settings.getMaxRamPercentage());
+        if (isAutoscaled()) {
+            if (minReplicas < 1 || maxReplicas < minReplicas) {
+                throw new IllegalArgumentException("Autoscaling needs 1 <= min replicas <= max replicas, got " + minReplicas + " and " + maxReplicas);
+            }
+            if (targetCpuUtilization != null && cpuRequest == null) {
+                throw new IllegalArgumentException("Autoscaling on CPU utilization needs a CPU request (" + CPU_REQUEST + ")");
+            }
+            if (targetMemoryUtilization != null && memoryRequest == null) {
+                throw new IllegalArgumentException("Autoscaling on memory utilization needs a memory request (" + MEMORY_REQUEST + ")");
+            }
+        }
+    }
+
+    /**
+     * @param properties looks an environment's properties up by name.
+     */
+    static ContainerResources of(final GenerationSettings settings, final Function<String, Object> properties) {
+        return new ContainerResources(settings, properties);
+    }
+
+    boolean isAutoscaled() {
+        return maxReplicas > 0;
+    }
+
+    /**
+     * The <code>replicas</code> field of the Deployment, or nothing when the autoscaler owns it.
+     */
+    String replicasField() {
+        return isAutoscaled() ? "" : "  replicas: " + replicas + "\n";
+    }
+
+    /**
+     * The <code>resources</code> of the container, or nothing when none is declared.
+     */
+    String resources() {
+        String requests = quantities("requests", cpuRequest, memoryRequest);
+        String limits = quantities("limits", cpuLimit, memoryLimit);
+        if (requests.isEmpty() && limits.isEmpty()) {
+            return "";
+        }
+        return "        resources:\n" + requests + limits;
+    }
+
+    /**
+     * Sizes the JVM after the container rather than after the node: heap as a share of the memory limit, processors
+     * from the CPU limit, and the collector the JVM would pick on a machine that size. Null when nothing is declared.
+     */
+    String javaToolOptions() {
+        List<String> options = new ArrayList<>();
+        String memory = memoryLimit != null ? memoryLimit : memoryRequest;
+        String cpu = cpuLimit != null ? cpuLimit : cpuRequest;
+        if (memoryLimit != null) {
+            options.add("-XX:MaxRAMPercentage=" + maxRamPercentage);
+        }
+        int processors = cpu == null ? 0 : Math.max(1, (int) Math.ceil(cpuCores(cpu)));
+        if (processors > 0) {
+            options.add("-XX:ActiveProcessorCount=" + processors);
+        }
+        if (memory != null || processors > 0) {
+            boolean small = (memory != null && memoryBytes(memory) < SERIAL_GC_MEMORY_THRESHOLD) || (processors > 0 && processors < 2);
+            options.add(small ? "-XX:+UseSerialGC" : "-XX:+UseG1GC");
+        }
+        return options.isEmpty() ? null : String.join(" ", options);
+    }
+
+    int minReplicas() {
+        return minReplicas;
+    }
+
+    int maxReplicas() {
+        return maxReplicas;
+    }
+
+    /**
+     * The <code>metrics</code> entries of the autoscaler.
+     */
+    String metrics() {
+        StringBuilder out = new StringBuilder();
+        appendMetric(out, "cpu", targetCpuUtilization);
+        appendMetric(out, "memory", targetMemoryUtilization);
+        return out.toString();
+    }
+
+    /**
+     * @return the number of cores of a Kubernetes CPU quantity such as <code>500m</code> or <code>2</code>.
+     */
+    static double cpuCores(final String quantity) {
+        try {
+            if (quantity.endsWith("m")) {
+                return Double.parseDouble(quantity.substring(0, quantity.length() - 1)) / 1000;
+            }
+            return Double.parseDouble(quantity);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Not a CPU quantity: " + quantity, ex);
+        }
+    }
+
+    /**
+     * @return the bytes of a Kubernetes memory quantity such as <code>512Mi</code>, <code>1G</code> or <code>1e9</code>.
+     */
+    static long memoryBytes(final String quantity) {
+        String[] suffixes = {"Ki", "Mi", "Gi", "Ti", "k", "M", "G", "T"};
+        double[] multipliers = {1L << 10, 1L << 20, 1L << 30, 1L << 40, 1e3, 1e6, 1e9, 1e12};
+        try {
+            for (int i = 0; i < suffixes.length; i++) {
+                if (quantity.endsWith(suffixes[i])) {
+                    return (long) (Double.parseDouble(quantity.substring(0, quantity.length() - suffixes[i].length())) * multipliers[i]);
+                }
+            }
+            return (long) Double.parseDouble(quantity);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Not a memory quantity: " + quantity, ex);
+        }
+    }
+
+    private static void appendMetric(final StringBuilder out, final String resource, final Integer utilization) {
+        if (utilization == null) {
+            return;
+        }
+        out.append("  - type: Resource\n")
+                .append("    resource:\n")
+                .append("      name: ").append(resource).append('\n')
+                .append("      target:\n")
+                .append("        type: Utilization\n")
+                .append("        averageUtilization: ").append(utilization).append('\n');
+    }
+
+    private static String quantities(final String name, final String cpu, final String memory) {
+        if (cpu == null && memory == null) {
+            return "";
+        }
+        StringBuilder out = new StringBuilder("          ").append(name).append(":\n");
+        if (cpu != null) {
+            out.append("            cpu: \"").append(cpu).append("\"\n");
+        }
+        if (memory != null) {
+            out.append("            memory: \"").append(memory).append("\"\n");
+        }
+        return out.toString();
+    }
+
+    private static String value(final Function<String, Object> properties, final String name, final String defaultValue) {
+        Object value = properties.apply(name);
+        return value == null || value.toString().trim().isEmpty() ? defaultValue : value.toString().trim();
+    }
+
+    private static Integer integer(final Function<String, Object> properties, final String name, final Integer defaultValue, final Integer fallback) {
+        String value = value(properties, name, defaultValue == null ? null : defaultValue.toString());
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Not a number: " + name + "=" + value, ex);
+        }
+    }
+}
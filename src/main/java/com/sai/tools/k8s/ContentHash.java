@@ -0,0 +1,60 @@
+package com.sai.tools.k8s;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 content hashes rendered as lower case hex, used to detect whether the inputs or outputs of a
+ * generation run have changed.
+ *
+ * @author Sai.
+ */
+final class ContentHash {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ContentHash() {
+    }
+
+    static String of(final byte[] bytes) {
+        return toHex(newDigest().digest(bytes));
+    }
+
+    /**
+     * Hashes the given parts in order. Every part is length prefixed, so ("ab", "c") and ("a", "bc") differ.
+     * Null parts are hashed as absent rather than as the text "null".
+     */
+    static String of(final String... parts) {
+        MessageDigest digest = newDigest();
+        for (String part : parts) {
+            if (part == null) {
+                digest.update((byte) 0);
+                continue;
+            }
+            byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+            digest.update((byte) 1);
+            digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.US_ASCII));
+            digest.update((byte) ':');
+            digest.update(bytes);
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not supported by this JVM", ex);
+        }
+    }
+
+    private static String toHex(final byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            out[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(out);
+    }
+}
@@ -1,23 +1,37 @@
 package com.sai.tools.k8s;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 
+import javax.inject.Inject;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
 /**
  * An example Maven Mojo that generates Kubernetes config map files from a hierarchy of Spring boot properties files.
  */
-@Mojo(name = "generate-deployment", defaultPhase = LifecyclePhase.PREPARE_PACKAGE)
+@Mojo(name = "generate-deployment", defaultPhase = LifecyclePhase.PREPARE_PACKAGE, threadSafe = true)
 public class GenerateDeploymentsMojo extends AbstractMojo {
 
     @Parameter(property = "project")
     private MavenProject project;
 
+    @Parameter(defaultValue = "${session}", readonly = true, required = true)
+    private MavenSession session;
+
+    @Parameter(defaultValue = "${plugin}", readonly = true, required = true)
+    private PluginDescriptor plugin;
+
     @Parameter(property = "dockerImageNamespace")
     private String dockerImageNamespace;
 
@@ -30,10 +44,260 @@ public class GenerateDeploymentsMojo extends AbstractMojo {
     @Parameter(property = "volumeMount", defaultValue = "/tmp")
     private String volumeMount;
 
+    /**
+     * Number of environments rendered and written concurrently. Defaults to the number of available processors.
+     */
+    @Parameter(property = "parallelism")
+    private Integer parallelism;
+
+    /**
+     * Only re-render the environments whose property files, templates or settings changed since the last run.
+     */
+    @Parameter(property = "incremental", defaultValue = "true")
+    private boolean incremental;
+
+    /**
+     * Directory scanned for the Spring Boot property files.
+     */
+    @Parameter(property = "resourcesDirectory", defaultValue = "${project.basedir}/src/main/resources")
+    private File resourcesDirectory;
+
+    /**
+     * Directory the descriptors and scripts are generated into.
+     */
+    @Parameter(property = "outputDirectory", defaultValue = "${project.build.directory}/k8s")
+    private File outputDirectory;
+
+    /**
+     * File name globs of the property files to pick up. Defaults to <code>application*.properties</code>.
+     */
+    @Parameter
+    private List<String> propertyIncludes;
+
+    /**
+     * Globs, relative to the resources directory, of files and directories that are never scanned.
+     * Defaults to the usual static asset and migration directories.
+     */
+    @Parameter
+    private List<String> propertyExcludes;
+
+    /**
+     * How many directory levels below and including the resources directory are scanned.
+     */
+    @Parameter(property = "propertyScanDepth", defaultValue = "2")
+    private int propertyScanDepth;
+
+    /**
+     * Also read <code>application*.yml</code> / <code>application*.yaml</code>, including profile specific documents.
+     */
+    @Parameter(property = "includeYaml", defaultValue = "true")
+    private boolean includeYaml;
+
+    /**
+     * Profile inheritance, child to parent, for example <code>&lt;prod-eu&gt;prod&lt;/prod-eu&gt;</code>: the child
+     * profile only declares what it overrides on top of its parent, which overrides the base properties.
+     */
+    @Parameter
+    private Map<String, String> profileParents;
+
+    /**
+     * Splits the properties of an environment over several ConfigMaps, each referenced through <code>envFrom</code>,
+     * so that none holds more than this many bytes of keys and values. 0 keeps a single ConfigMap; Kubernetes rejects
+     * ConfigMaps over 1 MiB.
+     */
+    @Parameter(property = "configMapMaxBytes", defaultValue = "0")
+    private int configMapMaxBytes;
+
+    /**
+     * Values larger than this many bytes go to gzip compressed <code>binaryData</code>, expanded by an init container
+     * into files that Spring imports as a config tree. 0 compresses nothing.
+     */
+    @Parameter(property = "compressValuesLargerThan", defaultValue = "0")
+    private int compressValuesLargerThan;
+
+    /**
+     * How the container gets its properties: <code>env</code> as environment variables, <code>file</code> as an
+     * <code>application.properties</code> mounted from the ConfigMaps, with the keys as written and without the
+     * per-variable cost of the environment, or <code>auto</code> to switch to a file above
+     * <code>configModeThreshold</code> properties. Values are not compressed in a file.
+     */
+    @Parameter(property = "configMode", defaultValue = "env")
+    private String configMode;
+
+    @Parameter(property = "configModeThreshold", defaultValue = "500")
+    private int configModeThreshold;
+
+    /**
+     * Image of the init container expanding the compressed values.
+     */
+    @Parameter(property = "initContainerImage", defaultValue = "busybox:1.36")
+    private String initContainerImage;
+
+    /**
+     * Names every ConfigMap after a hash of its contents and marks it <code>immutable</code>: a configuration change
+     * makes new ConfigMaps and rolls the Deployment out, and kubelets no longer watch the ConfigMaps.
+     */
+    @Parameter(property = "immutableConfigMaps", defaultValue = "false")
+    private boolean immutableConfigMaps;
+
+    /**
+     * Generations of immutable ConfigMaps kept by the generated <code>prune_configs.sh</code>.
+     */
+    @Parameter(property = "configMapRetention", defaultValue = "3")
+    private int configMapRetention;
+
+    /**
+     * How long <code>deploy_service.sh</code> waits for the rollout, as a kubectl duration. <code>ROLLOUT_TIMEOUT</code>
+     * overrides it when running the script.
+     */
+    @Parameter(property = "rolloutTimeout", defaultValue = "5m")
+    private String rolloutTimeout;
+
+    /**
+     * Container resources, as Kubernetes quantities (<code>500m</code>, <code>1Gi</code>...). Every environment can
+     * override them with the <code>k8s.resources.requests.cpu</code>, <code>k8s.resources.limits.cpu</code>,
+     * <code>k8s.resources.requests.memory</code> and <code>k8s.resources.limits.memory</code> properties.
+     */
+    @Parameter(property = "cpuRequest")
+    private String cpuRequest;
+
+    @Parameter(property = "cpuLimit")
+    private String cpuLimit;
+
+    @Parameter(property = "memoryRequest")
+    private String memoryRequest;
+
+    @Parameter(property = "memoryLimit")
+    private String memoryLimit;
+
+    /**
+     * Generates a HorizontalPodAutoscaler scaling between <code>minReplicas</code> (defaults to <code>replicas</code>)
+     * and <code>maxReplicas</code>, instead of a fixed number of replicas. Overridden per environment by the
+     * <code>k8s.autoscaling.*</code> properties.
+     */
+    @Parameter(property = "maxReplicas")
+    private Integer maxReplicas;
+
+    @Parameter(property = "minReplicas")
+    private Integer minReplicas;
+
+    /**
+     * Average CPU utilization, in percent of the request, the autoscaler aims at. 80 when no target is given.
+     */
+    @Parameter(property = "targetCpuUtilization")
+    private Integer targetCpuUtilization;
+
+    /**
+     * Average memory utilization, in percent of the request, the autoscaler aims at.
+     */
+    @Parameter(property = "targetMemoryUtilization")
+    private Integer targetMemoryUtilization;
+
+    /**
+     * Share of the memory limit the JVM heap may take, passed on through <code>JAVA_TOOL_OPTIONS</code>.
+     */
+    @Parameter(property = "maxRamPercentage", defaultValue = "75.0")
+    private String maxRamPercentage;
+
+    /**
+     * Adds startup, readiness and liveness probes on the actuator's <code>health/readiness</code> and
+     * <code>health/liveness</code> groups, at the port and path the environment's <code>management.*</code> and
+     * <code>server.*</code> properties put them.
+     */
+    @Parameter(property = "probes", defaultValue = "false")
+    private boolean probes;
+
+    /**
+     * How long the startup probe lets the application come up before liveness checks start.
+     */
+    @Parameter(property = "startupTimeoutSeconds", defaultValue = "120")
+    private int startupTimeoutSeconds;
+
+    /**
+     * Seconds a <code>preStop</code> hook waits before the shutdown starts, for the pod to leave the endpoints first.
+     * The grace period then also covers <code>spring.lifecycle.timeout-per-shutdown-phase</code> when
+     * <code>server.shutdown=graceful</code>. 0 for no hook.
+     */
+    @Parameter(property = "preStopDelaySeconds", defaultValue = "0")
+    private int preStopDelaySeconds;
+
+    /**
+     * Class data sharing: <code>none</code>; <code>image</code>, for an archive built into the image at
+     * <code>cdsArchive</code>; or <code>auto</code>, for the JVM (19+) to dump the archive on first start into a volume.
+     */
+    @Parameter(property = "classDataSharing", defaultValue = "none")
+    private String classDataSharing;
+
+    @Parameter(property = "cdsArchive", defaultValue = "/cds/app.jsa")
+    private String cdsArchive;
+
+    /**
+     * Checks every rendered document against the Kubernetes schemas bundled with the plugin, and for <code>${...}</code>
+     * placeholders left unresolved, failing the build on errors. Runs in process, without a cluster.
+     */
+    @Parameter(property = "validateManifests", defaultValue = "true")
+    private boolean validateManifests;
+
+    /**
+     * Compares the rendered manifests with those of the previous build, leaving unchanged environments untouched and
+     * writing, for the others, <code>&lt;artifactId&gt;-changes-&lt;env&gt;.json</code> and the merge patches of the
+     * changed documents, as applied by <code>deploy_changes.sh</code>.
+     */
+    @Parameter(property = "diffManifests", defaultValue = "false")
+    private boolean diffManifests;
+
+    /**
+     * Where the manifests of each build are kept for the next one to compare with, with <b>diffManifests</b>. Under
+     * <code>target</code> by default, so <code>mvn clean</code> deletes them: point it elsewhere for clean builds, and
+     * cache or archive it between CI builds.
+     */
+    @Parameter(property = "previousManifestsDirectory", defaultValue = "${project.build.directory}/k8s-previous-manifests")
+    private File previousManifestsDirectory;
+
+    /**
+     * Directory the roll-up of the generation metrics of all the modules of a multi-module build is written into, as
+     * <code>k8s-generation-metrics-reactor.json</code>. Each module's own metrics go to
+     * <code>k8s-generation-metrics.json</code> in its output directory.
+     */
+    @Parameter(property = "reactorMetricsDirectory", defaultValue = "${session.executionRootDirectory}/target/k8s")
+    private File reactorMetricsDirectory;
+
     @Parameter(property = "skip")
     private boolean skip;
 
+    /**
+     * Shared by all the modules of the build.
+     */
+    @Inject
+    private GenerationCache cache;
+
+    /**
+     * Shared by all the modules of the build.
+     */
+    @Inject
+    private ReactorMetrics reactorMetrics;
+
+    /**
+     * Shared by all the modules of the build.
+     */
+    @Inject
+    private ReactorProgress reactorProgress;
+
     public void execute() throws MojoExecutionException, MojoFailureException {
+        try {
+            generate();
+        } finally {
+            // Skipped or failed, this module has nothing more to tell the reactor wide goals.
+            reactorProgress.deploymentGenerated(project);
+        }
+        reactorProgress.runPendingIngress(session, plugin.getPluginLookupKey());
+        if (session.getProjects().size() > 1 && reactorProgress.remaining(session, plugin.getPluginLookupKey()).isEmpty()) {
+            // The last module to finish, whatever order -T ran them in.
+            getLog().info(" Reactor: " + reactorMetrics.summary());
+        }
+    }
+
+    private void generate() throws MojoFailureException {
         if (!skip) {
             try {
                 String groupId = project.getGroupId();
@@ -44,7 +308,72 @@ public class GenerateDeploymentsMojo extends AbstractMojo {
                     dockerFullyQualifiedName = dockerImageNamespace + "/" + artifactId;
                 }
                 getLog().info(String.format(" Generating Kubernetes Deployment Files for:  %s:%s:%s", groupId, artifactId, version));
-                K8sDeploymentDescriptorGenerator.generate(artifactId, version, dockerFullyQualifiedName, replicas, volumeMount);
+                GenerationSettings settings = new GenerationSettings(artifactId, version, dockerFullyQualifiedName)
+                        .replicas(replicas)
+                        .volumeMount(volumeMount)
+                        .parallelism(parallelism == null ? 0 : parallelism)
+                        .incremental(incremental)
+                        .resourcesDirectory(resourcesDirectory.toPath())
+                        .outputDirectory(outputDirectory.toPath())
+                        .propertyIncludes(propertyIncludes)
+                        .propertyScanDepth(propertyScanDepth)
+                        .includeYaml(includeYaml)
+                        .profileParents(profileParents)
+                        .configMapMaxBytes(configMapMaxBytes)
+                        .compressValuesLargerThan(compressValuesLargerThan)
+                        .configMode(configMode, configModeThreshold)
+                        .initContainerImage(initContainerImage)
+                        .immutableConfigMaps(immutableConfigMaps)
+                        .configMapRetention(configMapRetention)
+                        .rolloutTimeout(rolloutTimeout)
+                        .resources(cpuRequest, cpuLimit, memoryRequest, memoryLimit)
+                        .autoscaling(minReplicas, maxReplicas, targetCpuUtilization, targetMemoryUtilization)
+                        .maxRamPercentage(maxRamPercentage)
+                        .probes(probes)
+                        .startupTimeoutSeconds(startupTimeoutSeconds)
+                        .preStopDelaySeconds(preStopDelaySeconds)
+                        .classDataSharing(classDataSharing, cdsArchive)
+                        .validateManifests(validateManifests)
+                        .diffManifests(diffManifests, previousManifestsDirectory.toPath());
+                if (propertyExcludes != null) {
+                    settings.propertyExcludes(propertyExcludes);
+                }
+                GenerationReport report = K8sDeploymentDescriptorGenerator.generate(settings, cache);
+                getLog().debug(String.format(" Generation cache: %d hit(s), %d miss(es) so far in this build", cache.getHits(), cache.getMisses()));
+                if (report.isUpToDate()) {
+                    getLog().info(" Kubernetes Deployment Files are up to date");
+                } else {
+                    if (!report.getUpToDateEnvironments().isEmpty()) {
+                        getLog().info(String.format(" Rendered environments %s, unchanged environments %s", report.getRenderedEnvironments(), report.getUpToDateEnvironments()));
+                    }
+                    report.getConfigMapSizes().forEach((env, sizes) -> getLog().info(String.format(" ConfigMap sizes for %s: %s bytes", env,
+                            sizes.stream().map(String::valueOf).collect(Collectors.joining(" + ")))));
+                    report.getManifestChanges().forEach((env, changes) -> getLog().info(String.format(" Changes for %s: %s", env, changes)));
+                    getLog().info(String.format(" Wrote %d file(s), %d file(s) already up to date", report.getFilesWritten(), report.getFilesSkipped()));
+                }
+                GenerationMetrics metrics = report.getMetrics();
+                String timings = String.format(" Took %s ms for %d key(s), %d byte(s) written: %s", GenerationMetrics.millis(metrics.getWallNanos()),
+                        metrics.getKeys(), metrics.getBytesWritten(), metrics.summary());
+                if (report.isUpToDate()) {
+                    getLog().debug(timings);
+                } else {
+                    getLog().info(timings);
+                }
+                if (session.getProjects().size() > 1) {
+                    reactorMetrics.add(settings, report, reactorMetricsDirectory.toPath());
+                }
+                report.getValidationWarnings().values().forEach(warnings -> warnings.forEach(warning -> getLog().warn(" " + warning)));
+                if (report.hasValidationErrors()) {
+                    int errors = 0;
+                    for (List<String> environmentErrors : report.getValidationErrors().values()) {
+                        environmentErrors.forEach(error -> getLog().error(" " + error));
+                        errors += environmentErrors.size();
+                    }
+                    throw new MojoFailureException(String.format("%d error(s) in the generated Kubernetes manifests of %s", errors,
+                            report.getValidationErrors().keySet()));
+                }
+            } catch (MojoFailureException ex) {
+                throw ex;
             } catch (Exception ex) {
                 getLog().error(ex);
                 throw new RuntimeException(ex);
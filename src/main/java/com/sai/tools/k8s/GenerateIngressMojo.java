@@ -0,0 +1,113 @@
+package com.sai.tools.k8s;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates one Ingress per environment for all the services of the reactor, from the service metadata their
+ * <code>generate-deployment</code> runs wrote. Only does its work once per build, as soon as every module running
+ * <code>generate-deployment</code> is done with it: in the module asking for it then, or in the module completing the
+ * set, even if that one does not bind this goal.
+ */
+@Mojo(name = "generate-ingress", defaultPhase = LifecyclePhase.PACKAGE, threadSafe = true)
+public class GenerateIngressMojo extends AbstractMojo {
+
+    @Parameter(defaultValue = "${session}", readonly = true, required = true)
+    private MavenSession session;
+
+    @Parameter(defaultValue = "${plugin}", readonly = true, required = true)
+    private PluginDescriptor plugin;
+
+    /**
+     * Directory, relative to each project's build directory, <code>generate-deployment</code> wrote into.
+     */
+    @Parameter(property = "serviceMetadataDirectory", defaultValue = "k8s")
+    private String serviceMetadataDirectory;
+
+    /**
+     * Ingress template with the <code>${environment}</code> and <code>${paths}</code> variables. Defaults to the
+     * bundled networking.k8s.io/v1 template.
+     */
+    @Parameter(property = "ingressTemplate")
+    private File ingressTemplate;
+
+    /**
+     * Directory the <code>ingress-&lt;env&gt;.yml</code> files are generated into.
+     */
+    @Parameter(property = "ingressOutputDirectory", defaultValue = "${session.executionRootDirectory}/target/k8s")
+    private File outputDirectory;
+
+    @Parameter(property = "skip")
+    private boolean skip;
+
+    @Inject
+    private GenerationCache cache;
+
+    /**
+     * Shared by all the modules of the build.
+     */
+    @Inject
+    private ReactorProgress reactorProgress;
+
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (skip) {
+            getLog().warn(" Kubernetes Ingress Files generation skipped ");
+            return;
+        }
+        if (!reactorProgress.ingressRequested(session, plugin.getPluginLookupKey(), this::generate)) {
+            getLog().debug(" Kubernetes Ingress Files are generated once every module is done with generate-deployment");
+        }
+    }
+
+    private void generate() throws MojoExecutionException {
+        try {
+            List<ServiceMetadata> services = new ArrayList<>();
+            for (MavenProject reactorProject : session.getProjects()) {
+                if (!ReactorProgress.runsDeployment(session, reactorProject, plugin.getPluginLookupKey())) {
+                    continue;
+                }
+                Path metadataFile = ServiceMetadata.file(
+                        new File(reactorProject.getBuild().getDirectory(), serviceMetadataDirectory).toPath(),
+                        reactorProject.getArtifactId());
+                ServiceMetadata service = ServiceMetadata.load(metadataFile);
+                if (service != null) {
+                    services.add(service);
+                } else {
+                    getLog().warn(String.format(" No service metadata for %s in %s, left out of the Ingress (generate-deployment skipped or failed?)",
+                            reactorProject.getArtifactId(), metadataFile));
+                }
+            }
+            if (services.isEmpty()) {
+                getLog().warn(" No service metadata found in the reactor, run generate-deployment first");
+                return;
+            }
+            CompiledTemplate template = ingressTemplate == null
+                    ? cache.template(K8sIngressFileGenerator.DEFAULT_TEMPLATE)
+                    : cache.template(ingressTemplate.getName(),
+                    new String(Files.readAllBytes(ingressTemplate.toPath()), StandardCharsets.UTF_8));
+            OutputWriter writer = new OutputWriter();
+            int environments = K8sIngressFileGenerator.generate(services, template, outputDirectory.toPath(), writer);
+            getLog().info(String.format(" Generated Ingress for %d service(s) in %d environment(s): wrote %d file(s), %d file(s) already up to date",
+                    services.size(), environments, writer.getWritten(), writer.getSkipped()));
+        } catch (IOException | UncheckedIOException ex) {
+            throw new MojoExecutionException("Unable to generate the Ingress files", ex);
+        }
+    }
+}
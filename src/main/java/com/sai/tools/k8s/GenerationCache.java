@@ -0,0 +1,110 @@
+package com.sai.tools.k8s;
+
+import org.apache.maven.SessionScoped;
+
+import javax.inject.Named;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * What every module of a build would otherwise work out again: the compiled templates and the normalised form of
+ * the property sources, keyed by their content hash so that modules sharing an <code>application.properties</code>
+ * (typically through a parent resources jar) normalise it once.
+ * <p>
+ * One instance lives for the whole Maven session and is shared by the modules built concurrently with <code>-T</code>.
+ * Both caches are bounded and evict the least recently used entries first. Values are computed outside the lock, so
+ * two modules missing the same key at once may both compute it; values are pure functions of their key, so either
+ * one will do.
+ *
+ * @author Sai.
+ */
+@Named
+@SessionScoped
+public class GenerationCache {
+
+    static final int MAX_TEMPLATES = 64;
+    /**
+     * Bound on the number of properties, summed over all the cached property sources.
+     */
+    static final int MAX_PROPERTIES = 500_000;
+
+    private final Lru<CompiledTemplate> templates = new Lru<>(MAX_TEMPLATES, template -> 1);
+    private final Lru<Map<Object, Object>> normalizedProperties = new Lru<>(MAX_PROPERTIES, Map::size);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @return the compiled classpath template; the plugin's classpath does not change during a session.
+     */
+    CompiledTemplate template(final String resourceName) {
+        return templates.get("classpath:" + resourceName, () -> CompiledTemplate.fromClasspath(resourceName));
+    }
+
+    /**
+     * @return the compiled form of a template read from elsewhere, such as a user supplied file.
+     */
+    CompiledTemplate template(final String name, final String source) {
+        return templates.get(ContentHash.of(name, source), () -> CompiledTemplate.compile(name, source));
+    }
+
+    /**
+     * @param contentHash hash of the property source the normalised properties are computed from.
+     * @return the normalised properties, which must not be modified.
+     */
+    Map<Object, Object> normalizedProperties(final String contentHash, final Supplier<Map<Object, Object>> normalize) {
+        return normalizedProperties.get(contentHash, normalize);
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    private final class Lru<V> {
+
+        private final int maxWeight;
+        private final ToIntFunction<V> weigher;
+        private final LinkedHashMap<String, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long weight;
+
+        private Lru(final int maxWeight, final ToIntFunction<V> weigher) {
+            this.maxWeight = maxWeight;
+            this.weigher = weigher;
+        }
+
+        V get(final String key, final Supplier<V> compute) {
+            synchronized (this) {
+                V cached = entries.get(key);
+                if (cached != null) {
+                    hits.incrementAndGet();
+                    return cached;
+                }
+            }
+            misses.incrementAndGet();
+            V value = compute.get();
+            int valueWeight = weigher.applyAsInt(value);
+            if (valueWeight > maxWeight) {
+                return value;
+            }
+            synchronized (this) {
+                V raced = entries.putIfAbsent(key, value);
+                if (raced != null) {
+                    return raced;
+                }
+                weight += valueWeight;
+                for (Iterator<V> eldest = entries.values().iterator(); weight > maxWeight && eldest.hasNext(); ) {
+                    weight -= weigher.applyAsInt(eldest.next());
+                    eldest.remove();
+                }
+            }
+            return value;
+        }
+    }
+}
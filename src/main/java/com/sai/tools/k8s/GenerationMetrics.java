@@ -0,0 +1,223 @@
+package com.sai.tools.k8s;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Where a generation run spends its time and memory: the wall time and the bytes allocated by each {@link Phase}, and
+ * how much it worked on. A phase running on several threads at once, such as rendering the environments, adds up the
+ * time of every thread, so the phases may add up to more than the run. Allocations are only measured where the JVM
+ * counts them per thread (HotSpot does), and report -1 elsewhere. Safe to share between the per-environment tasks.
+ *
+ * @author Sai.
+ */
+public final class GenerationMetrics {
+
+    /**
+     * Name of the JSON report in the output directory.
+     */
+    static final String REPORT_FILE = "k8s-generation-metrics.json";
+
+    public enum Phase {
+        SCAN, LOAD, NORMALIZE, MERGE, RENDER, VALIDATE, DIFF, WRITE, SCRIPTS;
+
+        String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocationCounter();
+
+    private final LongAdder[] nanos = adders();
+    private final LongAdder[] allocatedBytes = adders();
+    private final LongAdder keys = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final long startNanos = System.nanoTime();
+    private final Instant startedAt = Instant.now();
+    private volatile long wallNanos;
+    private volatile int propertySources;
+
+    /**
+     * Starts timing a phase on the current thread, until the returned timer is closed.
+     */
+    Timer start(final Phase phase) {
+        return new Timer(phase);
+    }
+
+    <T> T time(final Phase phase, final Supplier<T> work) {
+        try (Timer ignored = start(phase)) {
+            return work.get();
+        }
+    }
+
+    void propertySources(final int count) {
+        propertySources = count;
+    }
+
+    void keys(final int count) {
+        keys.add(count);
+    }
+
+    void written(final long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    void finish() {
+        wallNanos = System.nanoTime() - startNanos;
+    }
+
+    public long getNanos(final Phase phase) {
+        return nanos[phase.ordinal()].sum();
+    }
+
+    /**
+     * @return the bytes the phase allocated, or -1 when the JVM does not count allocations.
+     */
+    public long getAllocatedBytes(final Phase phase) {
+        return ALLOCATIONS == null ? -1 : allocatedBytes[phase.ordinal()].sum();
+    }
+
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public int getPropertySources() {
+        return propertySources;
+    }
+
+    /**
+     * Number of properties over the rendered environments.
+     */
+    public long getKeys() {
+        return keys.sum();
+    }
+
+    /**
+     * Bytes of the files whose contents changed and were replaced.
+     */
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * One line for the build log, such as <code>scan 2 ms, load 10 ms, ..., 35 MB allocated</code>.
+     */
+    String summary() {
+        StringBuilder out = new StringBuilder();
+        long allocated = 0;
+        for (Phase phase : Phase.values()) {
+            out.append(phase.key()).append(' ').append(millis(getNanos(phase))).append(" ms, ");
+            allocated += Math.max(0, getAllocatedBytes(phase));
+        }
+        if (ALLOCATIONS == null) {
+            return out.substring(0, out.length() - 2);
+        }
+        return out.append(String.format(Locale.ROOT, "%.1f", allocated / (1024.0 * 1024))).append(" MB allocated").toString();
+    }
+
+    /**
+     * The metrics and the outcome of the run, as written to {@value #REPORT_FILE}.
+     */
+    String toJson(final GenerationSettings settings, final GenerationReport report) {
+        StringBuilder out = new StringBuilder("{\n");
+        out.append("  \"artifactId\": ").append(quote(settings.getArtifactId())).append(",\n");
+        out.append("  \"version\": ").append(quote(settings.getVersion())).append(",\n");
+        out.append("  \"startedAt\": ").append(quote(startedAt.toString())).append(",\n");
+        out.append("  \"wallMillis\": ").append(millis(wallNanos)).append(",\n");
+        out.append("  \"parallelism\": ").append(settings.getParallelism()).append(",\n");
+        out.append("  \"upToDate\": ").append(report.isUpToDate()).append(",\n");
+        out.append("  \"counts\": {\n");
+        out.append("    \"environments\": ").append(report.getRenderedEnvironments().size() + report.getUpToDateEnvironments().size()).append(",\n");
+        out.append("    \"environmentsRendered\": ").append(report.getRenderedEnvironments().size()).append(",\n");
+        out.append("    \"environmentsUpToDate\": ").append(report.getUpToDateEnvironments().size()).append(",\n");
+        out.append("    \"propertySources\": ").append(propertySources).append(",\n");
+        out.append("    \"keys\": ").append(getKeys()).append(",\n");
+        out.append("    \"filesWritten\": ").append(report.getFilesWritten()).append(",\n");
+        out.append("    \"filesSkipped\": ").append(report.getFilesSkipped()).append(",\n");
+        out.append("    \"bytesWritten\": ").append(getBytesWritten()).append("\n");
+        out.append("  },\n");
+        out.append("  \"phases\": {\n");
+        for (Phase phase : Phase.values()) {
+            out.append("    ").append(quote(phase.key())).append(": {\"millis\": ").append(millis(getNanos(phase)))
+                    .append(", \"allocatedBytes\": ").append(getAllocatedBytes(phase)).append('}')
+                    .append(phase.ordinal() < Phase.values().length - 1 ? ",\n" : "\n");
+        }
+        return out.append("  }\n}\n").toString();
+    }
+
+    static String millis(final long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1e6);
+    }
+
+    static String quote(final String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[Phase.values().length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        try {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+                    && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled()) {
+                return (com.sun.management.ThreadMXBean) threads;
+            }
+        } catch (LinkageError ex) {
+            // Not a HotSpot JVM: no allocation counts.
+        }
+        return null;
+    }
+
+    private static long allocatedBytes() {
+        return ALLOCATIONS == null ? 0 : ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Times a phase on the thread that started it.
+     */
+    final class Timer implements AutoCloseable {
+
+        private final Phase phase;
+        private final long startNanos = System.nanoTime();
+        private final long startBytes = allocatedBytes();
+
+        private Timer(final Phase phase) {
+            this.phase = phase;
+        }
+
+        @Override
+        public void close() {
+            nanos[phase.ordinal()].add(System.nanoTime() - startNanos);
+            allocatedBytes[phase.ordinal()].add(allocatedBytes() - startBytes);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.sai.tools.k8s;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * What a generation run did, for the goal to report back through the Maven log.
+ *
+ * @author Sai.
+ */
+public final class GenerationReport {
+
+    private final Set<String> renderedEnvironments = new TreeSet<>();
+    private final Set<String> upToDateEnvironments = new TreeSet<>();
+    private final SortedMap<String, List<Integer>> configMapSizes = new TreeMap<>();
+    private final SortedMap<String, List<String>> validationErrors = new TreeMap<>();
+    private final SortedMap<String, List<String>> validationWarnings = new TreeMap<>();
+    private final SortedMap<String, String> manifestChanges = new TreeMap<>();
+    private final GenerationMetrics metrics = new GenerationMetrics();
+    private boolean scriptsRendered;
+    private int filesWritten;
+    private int filesSkipped;
+
+    void rendered(final String environment) {
+        renderedEnvironments.add(environment);
+    }
+
+    void upToDate(final String environment) {
+        upToDateEnvironments.add(environment);
+    }
+
+    void configMapSizes(final String environment, final List<Integer> sizes) {
+        configMapSizes.put(environment, sizes);
+    }
+
+    void validated(final String environment, final List<String> errors, final List<String> warnings) {
+        if (!errors.isEmpty()) {
+            validationErrors.put(environment, errors);
+        }
+        if (!warnings.isEmpty()) {
+            validationWarnings.put(environment, warnings);
+        }
+    }
+
+    void manifestChanges(final String environment, final String summary) {
+        manifestChanges.put(environment, summary);
+    }
+
+    void scriptsRendered() {
+        scriptsRendered = true;
+    }
+
+    void files(final int written, final int skipped) {
+        filesWritten = written;
+        filesSkipped = skipped;
+    }
+
+    public Set<String> getRenderedEnvironments() {
+        return Collections.unmodifiableSet(renderedEnvironments);
+    }
+
+    public Set<String> getUpToDateEnvironments() {
+        return Collections.unmodifiableSet(upToDateEnvironments);
+    }
+
+    /**
+     * Per rendered environment, the bytes of keys and values of each of its ConfigMaps.
+     */
+    public Map<String, List<Integer>> getConfigMapSizes() {
+        return Collections.unmodifiableMap(configMapSizes);
+    }
+
+    /**
+     * Per rendered environment with errors, what the validation of its manifests found wrong.
+     */
+    public Map<String, List<String>> getValidationErrors() {
+        return Collections.unmodifiableMap(validationErrors);
+    }
+
+    public Map<String, List<String>> getValidationWarnings() {
+        return Collections.unmodifiableMap(validationWarnings);
+    }
+
+    public boolean hasValidationErrors() {
+        return !validationErrors.isEmpty();
+    }
+
+    /**
+     * Per rendered environment, when diffing the manifests, a summary of what changed since the previous build.
+     */
+    public Map<String, String> getManifestChanges() {
+        return Collections.unmodifiableMap(manifestChanges);
+    }
+
+    public GenerationMetrics getMetrics() {
+        return metrics;
+    }
+
+    public boolean isScriptsRendered() {
+        return scriptsRendered;
+    }
+
+    /**
+     * Number of files whose contents changed and were replaced.
+     */
+    public int getFilesWritten() {
+        return filesWritten;
+    }
+
+    /**
+     * Number of rendered files that already held identical contents and were left untouched.
+     */
+    public int getFilesSkipped() {
+        return filesSkipped;
+    }
+
+    public boolean isUpToDate() {
+        return renderedEnvironments.isEmpty() && !scriptsRendered;
+    }
+}
@@ -0,0 +1,481 @@
+package com.sai.tools.k8s;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The parameters of one generation run, as configured on {@link GenerateDeploymentsMojo}.
+ *
+ * @author Sai.
+ */
+public final class GenerationSettings {
+
+    /**
+     * Version of the rendered output, to bump with every change of the Java code that changes what is rendered for
+     * the same inputs, so that incremental runs of development builds of the plugin do not keep stale output.
+     */
+    static final String OUTPUT_FORMAT = "3";
+
+    /**
+     * Version of the plugin, from the Maven metadata of its jar, so that upgrading it renders everything again.
+     */
+    static final String PLUGIN_VERSION = pluginVersion();
+
+    private final String artifactId;
+    private final String version;
+    private final String fullyQualifiedDockerImageName;
+    private int replicas = 1;
+    private String volumeMount = "/tmp";
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private boolean incremental = true;
+    private Path resourcesDirectory = Paths.get("src", "main", "resources");
+    private Path outputDirectory = Paths.get("target", "k8s");
+    private List<String> propertyIncludes = PropertySourceScanner.DEFAULT_INCLUDES;
+    private List<String> propertyExcludes = PropertySourceScanner.DEFAULT_EXCLUDES;
+    private int propertyScanDepth = PropertySourceScanner.DEFAULT_MAX_DEPTH;
+    private boolean includeYaml = true;
+    private Map<String, String> profileParents = Collections.emptyMap();
+    private int configMapMaxBytes;
+    private int compressValuesLargerThan;
+    private String configMode = ConfigMapLayout.CONFIG_MODE_ENV;
+    private int configModeThreshold = 500;
+    private String initContainerImage = "busybox:1.36";
+    private boolean immutableConfigMaps;
+    private int configMapRetention = 3;
+    private String rolloutTimeout = "5m";
+    private String cpuRequest;
+    private String cpuLimit;
+    private String memoryRequest;
+    private String memoryLimit;
+    private Integer minReplicas;
+    private Integer maxReplicas;
+    private Integer targetCpuUtilization;
+    private Integer targetMemoryUtilization;
+    private String maxRamPercentage = "75.0";
+    private boolean probes;
+    private int startupTimeoutSeconds = 120;
+    private int preStopDelaySeconds;
+    private String classDataSharing = StartupProfile.CDS_NONE;
+    private String cdsArchive = "/cds/app.jsa";
+    private boolean validateManifests = true;
+    private boolean diffManifests;
+    private Path previousManifestsDirectory;
+
+    public GenerationSettings(final String artifactId, final String version, final String fullyQualifiedDockerImageName) {
+        this.artifactId = artifactId;
+        this.version = version;
+        this.fullyQualifiedDockerImageName = fullyQualifiedDockerImageName;
+    }
+
+    public GenerationSettings replicas(final int replicas) {
+        this.replicas = replicas;
+        return this;
+    }
+
+    public GenerationSettings volumeMount(final String volumeMount) {
+        this.volumeMount = volumeMount;
+        return this;
+    }
+
+    public GenerationSettings parallelism(final int parallelism) {
+        this.parallelism = parallelism < 1 ? Runtime.getRuntime().availableProcessors() : parallelism;
+        return this;
+    }
+
+    public GenerationSettings incremental(final boolean incremental) {
+        this.incremental = incremental;
+        return this;
+    }
+
+    public GenerationSettings resourcesDirectory(final Path resourcesDirectory) {
+        this.resourcesDirectory = resourcesDirectory;
+        return this;
+    }
+
+    public GenerationSettings outputDirectory(final Path outputDirectory) {
+        this.outputDirectory = outputDirectory;
+        return this;
+    }
+
+    /**
+     * File name globs of the property sources to pick up, <code>application*.properties</code> when empty.
+     */
+    public GenerationSettings propertyIncludes(final List<String> propertyIncludes) {
+        this.propertyIncludes = propertyIncludes;
+        return this;
+    }
+
+    /**
+     * Globs, relative to the resources directory, of the files and directories to leave out.
+     */
+    public GenerationSettings propertyExcludes(final List<String> propertyExcludes) {
+        this.propertyExcludes = propertyExcludes;
+        return this;
+    }
+
+    public GenerationSettings propertyScanDepth(final int propertyScanDepth) {
+        this.propertyScanDepth = propertyScanDepth;
+        return this;
+    }
+
+    /**
+     * Whether <code>application*.yml</code> / <code>application*.yaml</code> files are read as well.
+     */
+    public GenerationSettings includeYaml(final boolean includeYaml) {
+        this.includeYaml = includeYaml;
+        return this;
+    }
+
+    /**
+     * Profile inheritance, child to parent: an entry prod-eu=prod makes <code>prod-eu</code> inherit every property of
+     * <code>prod</code>, which in turn inherits from the base properties.
+     */
+    public GenerationSettings profileParents(final Map<String, String> profileParents) {
+        this.profileParents = profileParents == null ? Collections.<String, String>emptyMap() : profileParents;
+        return this;
+    }
+
+    /**
+     * Splits an environment's properties over as many ConfigMaps as needed to keep each one's keys and values within
+     * this many bytes. 0, the default, keeps them in a single ConfigMap.
+     */
+    public GenerationSettings configMapMaxBytes(final int configMapMaxBytes) {
+        this.configMapMaxBytes = configMapMaxBytes;
+        return this;
+    }
+
+    /**
+     * Moves the values larger than this many bytes to gzip compressed <code>binaryData</code>, expanded into files by
+     * an init container. 0, the default, compresses nothing.
+     */
+    public GenerationSettings compressValuesLargerThan(final int compressValuesLargerThan) {
+        this.compressValuesLargerThan = compressValuesLargerThan;
+        return this;
+    }
+
+    /**
+     * How the container gets its properties: <code>env</code>, the default, as environment variables through
+     * <code>envFrom</code>; <code>file</code>, as an <code>application.properties</code> mounted from the ConfigMaps;
+     * <code>auto</code>, as a file once the environment has more than {@link #getConfigModeThreshold()} properties.
+     */
+    public GenerationSettings configMode(final String configMode, final int configModeThreshold) {
+        this.configMode = configMode;
+        this.configModeThreshold = configModeThreshold;
+        return this;
+    }
+
+    /**
+     * Image of the init container expanding the compressed values, which needs a shell and <code>gunzip</code>.
+     */
+    public GenerationSettings initContainerImage(final String initContainerImage) {
+        this.initContainerImage = initContainerImage;
+        return this;
+    }
+
+    /**
+     * Names every ConfigMap after a hash of its contents and marks it immutable, so that a change of configuration
+     * always makes new ConfigMaps and a rollout of the Deployment.
+     */
+    public GenerationSettings immutableConfigMaps(final boolean immutableConfigMaps) {
+        this.immutableConfigMaps = immutableConfigMaps;
+        return this;
+    }
+
+    /**
+     * How many generations of immutable ConfigMaps the prune script keeps.
+     */
+    public GenerationSettings configMapRetention(final int configMapRetention) {
+        this.configMapRetention = configMapRetention;
+        return this;
+    }
+
+    /**
+     * How long the deploy script waits for a Deployment to roll out, as a kubectl duration such as <code>5m</code>.
+     */
+    public GenerationSettings rolloutTimeout(final String rolloutTimeout) {
+        this.rolloutTimeout = rolloutTimeout;
+        return this;
+    }
+
+    /**
+     * Container resources, as Kubernetes quantities. Null leaves the request or limit out.
+     */
+    public GenerationSettings resources(final String cpuRequest, final String cpuLimit, final String memoryRequest, final String memoryLimit) {
+        this.cpuRequest = cpuRequest;
+        this.cpuLimit = cpuLimit;
+        this.memoryRequest = memoryRequest;
+        this.memoryLimit = memoryLimit;
+        return this;
+    }
+
+    /**
+     * Replaces the fixed number of replicas with a HorizontalPodAutoscaler when maxReplicas is set. minReplicas defaults
+     * to {@link #replicas(int)}; without any target, the autoscaler aims at 80% CPU utilization.
+     */
+    public GenerationSettings autoscaling(final Integer minReplicas, final Integer maxReplicas,
+                                          final Integer targetCpuUtilization, final Integer targetMemoryUtilization) {
+        this.minReplicas = minReplicas;
+        this.maxReplicas = maxReplicas;
+        this.targetCpuUtilization = targetCpuUtilization;
+        this.targetMemoryUtilization = targetMemoryUtilization;
+        return this;
+    }
+
+    /**
+     * Share of the container memory the JVM heap may take, as passed to <code>-XX:MaxRAMPercentage</code>.
+     */
+    public GenerationSettings maxRamPercentage(final String maxRamPercentage) {
+        this.maxRamPercentage = maxRamPercentage;
+        return this;
+    }
+
+    /**
+     * Whether the container gets startup, readiness and liveness probes on the actuator health groups.
+     */
+    public GenerationSettings probes(final boolean probes) {
+        this.probes = probes;
+        return this;
+    }
+
+    /**
+     * How long the startup probe lets the application come up before the liveness probe takes over.
+     */
+    public GenerationSettings startupTimeoutSeconds(final int startupTimeoutSeconds) {
+        this.startupTimeoutSeconds = startupTimeoutSeconds;
+        return this;
+    }
+
+    /**
+     * How long a <code>preStop</code> hook delays the shutdown while the pod is taken out of the endpoints. 0 for no hook.
+     */
+    public GenerationSettings preStopDelaySeconds(final int preStopDelaySeconds) {
+        this.preStopDelaySeconds = preStopDelaySeconds;
+        return this;
+    }
+
+    /**
+     * Class data sharing: <code>none</code>, <code>image</code> (an archive built into the image) or <code>auto</code>
+     * (an archive the JVM dumps on first start), at the given archive path.
+     */
+    public GenerationSettings classDataSharing(final String classDataSharing, final String cdsArchive) {
+        this.classDataSharing = classDataSharing;
+        this.cdsArchive = cdsArchive;
+        return this;
+    }
+
+    public String getArtifactId() {
+        return artifactId;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getFullyQualifiedDockerImageName() {
+        return fullyQualifiedDockerImageName;
+    }
+
+    public int getReplicas() {
+        return replicas;
+    }
+
+    public String getVolumeMount() {
+        return volumeMount;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public Path getResourcesDirectory() {
+        return resourcesDirectory;
+    }
+
+    public Path getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    public List<String> getPropertyIncludes() {
+        return propertyIncludes;
+    }
+
+    public List<String> getPropertyExcludes() {
+        return propertyExcludes;
+    }
+
+    public int getPropertyScanDepth() {
+        return propertyScanDepth;
+    }
+
+    public boolean isIncludeYaml() {
+        return includeYaml;
+    }
+
+    public Map<String, String> getProfileParents() {
+        return profileParents;
+    }
+
+    public int getConfigMapMaxBytes() {
+        return configMapMaxBytes;
+    }
+
+    public int getCompressValuesLargerThan() {
+        return compressValuesLargerThan;
+    }
+
+    public String getConfigMode() {
+        return configMode;
+    }
+
+    public int getConfigModeThreshold() {
+        return configModeThreshold;
+    }
+
+    public String getInitContainerImage() {
+        return initContainerImage;
+    }
+
+    public boolean isImmutableConfigMaps() {
+        return immutableConfigMaps;
+    }
+
+    public int getConfigMapRetention() {
+        return configMapRetention;
+    }
+
+    public String getRolloutTimeout() {
+        return rolloutTimeout;
+    }
+
+    public String getCpuRequest() {
+        return cpuRequest;
+    }
+
+    public String getCpuLimit() {
+        return cpuLimit;
+    }
+
+    public String getMemoryRequest() {
+        return memoryRequest;
+    }
+
+    public String getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    public Integer getMinReplicas() {
+        return minReplicas;
+    }
+
+    public Integer getMaxReplicas() {
+        return maxReplicas;
+    }
+
+    public Integer getTargetCpuUtilization() {
+        return targetCpuUtilization;
+    }
+
+    public Integer getTargetMemoryUtilization() {
+        return targetMemoryUtilization;
+    }
+
+    public String getMaxRamPercentage() {
+        return maxRamPercentage;
+    }
+
+    public boolean isProbes() {
+        return probes;
+    }
+
+    public int getStartupTimeoutSeconds() {
+        return startupTimeoutSeconds;
+    }
+
+    public int getPreStopDelaySeconds() {
+        return preStopDelaySeconds;
+    }
+
+    public String getClassDataSharing() {
+        return classDataSharing;
+    }
+
+    public String getCdsArchive() {
+        return cdsArchive;
+    }
+
+    /**
+     * Checks the rendered manifests against the bundled Kubernetes schemas and for unresolved placeholders (defaults to
+     * true). Environments whose manifests have errors are rendered again on the next run.
+     */
+    public GenerationSettings validateManifests(final boolean validateManifests) {
+        this.validateManifests = validateManifests;
+        return this;
+    }
+
+    public boolean isValidateManifests() {
+        return validateManifests;
+    }
+
+    /**
+     * Compares the manifests of every rendered environment with those of the previous build (defaults to false): an
+     * environment whose documents did not change is left untouched, and the others get a change summary and the merge
+     * patches applying just what changed.
+     *
+     * @param previousManifestsDirectory where the manifests of each build are kept for the next one to compare with,
+     *                                   out of the output directory for a clean build to still have them; null for
+     *                                   the output directory.
+     */
+    public GenerationSettings diffManifests(final boolean diffManifests, final Path previousManifestsDirectory) {
+        this.diffManifests = diffManifests;
+        this.previousManifestsDirectory = previousManifestsDirectory;
+        return this;
+    }
+
+    public boolean isDiffManifests() {
+        return diffManifests;
+    }
+
+    public Path getPreviousManifestsDirectory() {
+        return previousManifestsDirectory != null ? previousManifestsDirectory : outputDirectory;
+    }
+
+    /**
+     * A hash of every setting that influences the rendered output, and of the plugin rendering it. Settings that only
+     * change how the output is produced (parallelism, incremental) are left out.
+     */
+    String fingerprint() {
+        return ContentHash.of(PLUGIN_VERSION, OUTPUT_FORMAT, artifactId, version, fullyQualifiedDockerImageName, String.valueOf(replicas), volumeMount,
+                String.valueOf(configMapMaxBytes), String.valueOf(compressValuesLargerThan), initContainerImage,
+                configMode, String.valueOf(configModeThreshold),
+                String.valueOf(immutableConfigMaps), String.valueOf(configMapRetention), rolloutTimeout,
+                cpuRequest, cpuLimit, memoryRequest, memoryLimit, String.valueOf(minReplicas), String.valueOf(maxReplicas),
+                String.valueOf(targetCpuUtilization), String.valueOf(targetMemoryUtilization), maxRamPercentage,
+                String.valueOf(probes), String.valueOf(startupTimeoutSeconds), String.valueOf(preStopDelaySeconds), classDataSharing, cdsArchive,
+                // Not an output, but turning validation on must not take unchecked manifests as up to date.
+                String.valueOf(validateManifests), String.valueOf(diffManifests),
+                String.valueOf(previousManifestsDirectory));
+    }
+
+    private static String pluginVersion() {
+        Properties pom = new Properties();
+        try (InputStream in = GenerationSettings.class.getResourceAsStream(
+                "/META-INF/maven/com.github.saiprasadkrishnamurthy/k8s-utils-maven-plugin/pom.properties")) {
+            if (in != null) {
+                pom.load(in);
+            }
+        } catch (IOException ex) {
+            // Then only the output format tells plugin versions apart.
+        }
+        return pom.getProperty("version", "unknown");
+    }
+}
@@ -1,16 +1,39 @@
 package com.sai.tools.k8s;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.configuration2.PropertiesConfiguration;
 import org.apache.commons.configuration2.PropertiesConfigurationLayout;
@@ -19,85 +42,313 @@ import org.jasypt.util.text.BasicTextEncryptor;
 import org.yaml.snakeyaml.DumperOptions;
 import org.yaml.snakeyaml.Yaml;
 
+/**
+ * Encrypts the plain values of <code>&lt;artifactId&gt;-encrypted-&lt;env&gt;.properties</code> files as
+ * <code>ENC(...)</code> and copies them into the paired <code>&lt;artifactId&gt;-configmap-&lt;env&gt;.yml</code>.
+ * <p>
+ * Either one file: <code>&lt;directory&gt; &lt;artifactId&gt; &lt;env&gt; &lt;password&gt;</code>, or in bulk:
+ * <code>--bulk &lt;directory&gt; &lt;password&gt; [glob] [threads]</code>, which processes every matching file below the
+ * directory (<code>*-encrypted-*.properties</code> by default) concurrently.
+ */
 public class JasyptEncryptionUtil {
 
+	static final String BULK_OPTION = "--bulk";
+	static final String DEFAULT_BULK_GLOB = "*-encrypted-*.properties";
+	private static final String ENCRYPTED_INFIX = "-encrypted-";
+	private static final String CONFIGMAP_INFIX = "-configmap-";
+	private static final String DEPLOYMENT_INFIX = "-deployment-";
+
+	/* One pool of initialised encryptors per password, shared by every file and thread. */
+	private static final ConcurrentMap<String, EncryptorPool> ENCRYPTORS = new ConcurrentHashMap<>();
+
 	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && BULK_OPTION.equals(args[0])) {
+			bulk(args);
+			return;
+		}
 		if (args.length != 4) {
 			System.err.println(
-					"Expected 3 arguments: 1.Path to property file 2.Project Artifact ID 3.Environment 4.Encryption Password");
+					"Expected 4 arguments: 1.Path to property file 2.Project Artifact ID 3.Environment 4.Encryption Password");
+			System.err.println("   or: " + BULK_OPTION + " <directory> <password> [glob, default " + DEFAULT_BULK_GLOB + "] [threads]");
 			System.exit(1);
 		}
 		String path = args[0];
 		String projectArtifactId = args[1];
 		String envName = args[2];
 		String password = args[3];
-		String configYaml = projectArtifactId + "-configmap-" + envName + ".yml";
-		String encryptedProperty = projectArtifactId + "-encrypted-" + envName + ".properties";
-		String configPath = path.endsWith("/") ? path + configYaml : path + "//" + configYaml;
-		String filePath = path.endsWith("/") ? path + encryptedProperty : path + "//" + encryptedProperty;
+		String configYaml = projectArtifactId + CONFIGMAP_INFIX + envName + ".yml";
+		String encryptedProperty = projectArtifactId + ENCRYPTED_INFIX + envName + ".properties";
+		encryptFile(Paths.get(path, encryptedProperty), Paths.get(path, configYaml), password);
+	}
+
+	private static void bulk(String[] args) throws Exception {
+		if (args.length < 3 || args.length > 5) {
+			System.err.println("Expected: " + BULK_OPTION + " <directory> <password> [glob] [threads]");
+			System.exit(1);
+		}
+		Path directory = Paths.get(args[1]);
+		String password = args[2];
+		String glob = args.length > 3 ? args[3] : DEFAULT_BULK_GLOB;
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		List<Path> files = findEncryptedPropertyFiles(directory, glob);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files.size())));
+		int encrypted = 0;
+		List<String> failures = new ArrayList<>();
+		try {
+			List<Future<Integer>> tasks = new ArrayList<>();
+			for (Path file : files) {
+				tasks.add(executor.submit(() -> encryptFile(file, pairedConfigMap(file), password)));
+			}
+			for (int i = 0; i < tasks.size(); i++) {
+				try {
+					encrypted += tasks.get(i).get();
+				} catch (ExecutionException e) {
+					failures.add(files.get(i) + ": " + e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		System.out.println("Encrypted " + encrypted + " value(s) in " + files.size() + " file(s)");
+		if (!failures.isEmpty()) {
+			failures.forEach(System.err::println);
+			System.exit(1);
+		}
+	}
 
+	static List<Path> findEncryptedPropertyFiles(Path directory, String glob) throws IOException {
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+		try (Stream<Path> paths = Files.walk(directory)) {
+			return paths.filter(Files::isRegularFile)
+					.filter(path -> matcher.matches(path.getFileName()))
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * <code>dir/a-encrypted-dev.properties</code> is paired with <code>dir/a-configmap-dev.yml</code>.
+	 */
+	static Path pairedConfigMap(Path encryptedPropertyFile) {
+		String fileName = encryptedPropertyFile.getFileName().toString();
+		int infix = fileName.lastIndexOf(ENCRYPTED_INFIX);
+		if (infix < 0 || !fileName.endsWith(".properties")) {
+			throw new IllegalArgumentException("Not an <artifactId>" + ENCRYPTED_INFIX + "<env>.properties file: " + encryptedPropertyFile);
+		}
+		String artifactId = fileName.substring(0, infix);
+		String envName = fileName.substring(infix + ENCRYPTED_INFIX.length(), fileName.length() - ".properties".length());
+		return encryptedPropertyFile.resolveSibling(artifactId + CONFIGMAP_INFIX + envName + ".yml");
+	}
+
+	/**
+	 * @return the number of values that were encrypted.
+	 */
+	static int encryptFile(Path filePath, Path configPath, String password) throws IOException {
 		Properties properties = new Properties();
-		try (InputStream inputStream = new FileInputStream(filePath)) {
+		try (InputStream inputStream = Files.newInputStream(filePath)) {
 			properties.load(inputStream);
-			Map<Object, Object> props = properties.entrySet().stream()
-					.filter(map -> (!map.getValue().toString().startsWith("ENC("))).collect(Collectors.toMap(
-							map -> map.getKey(), map -> "ENC(" + encrypt(password, map.getValue().toString()) + ")"));
-			if (!props.isEmpty()) {
-				updateProperties(filePath, props);
-				updateYamlFile(configPath, props);
-			}
 		}
+		EncryptorPool encryptor = ENCRYPTORS.computeIfAbsent(password, EncryptorPool::new);
+		Map<Object, Object> props = properties.entrySet().stream()
+				.filter(map -> (!map.getValue().toString().startsWith("ENC("))).collect(Collectors.toMap(
+						map -> map.getKey(), map -> "ENC(" + encryptor.encrypt(map.getValue().toString()) + ")"));
+		if (!props.isEmpty()) {
+			updateProperties(filePath, props);
+			updateYamlFile(configPath, props);
+		}
+		return props.size();
 	}
 
-	private static void updateYamlFile(String configPath, Map<Object, Object> props) {
+	/**
+	 * Sets the encrypted values in the ConfigMaps of the file, which holds several of them when they are sharded
+	 * (<code>configMapMaxBytes</code>): a key already in a ConfigMap is updated there, a new one goes to the last
+	 * ConfigMap. ConfigMaps laid out as an <code>application.properties</code> file (<code>configMode</code> file)
+	 * get the values as lines of that file.
+	 * <p>
+	 * Immutable ConfigMaps (<code>immutableConfigMaps</code>) are named after their contents, so the ones that changed
+	 * get a new name and generation label, and the paired <code>&lt;artifactId&gt;-deployment-&lt;env&gt;.yml</code>
+	 * is pointed at the new names: an immutable ConfigMap cannot be changed in place.
+	 */
+	static void updateYamlFile(Path configPath, Map<Object, Object> props) {
 		DumperOptions options = new DumperOptions();
 		options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
 		options.setPrettyFlow(true);
 		Yaml yaml = new Yaml(options);
-		FileWriter os = null;
-		try (InputStream is = new FileInputStream(new File(configPath))) {
-			Map<String, Object> obj = yaml.load(is);
-			@SuppressWarnings("unchecked")
-			Map<String, Object> data = (Map<String, Object>) obj.get("data");
+		try {
+			List<Object> documents = new ArrayList<>();
+			try (Reader reader = Files.newBufferedReader(configPath, StandardCharsets.UTF_8)) {
+				yaml.loadAll(reader).forEach(documents::add);
+			}
+			List<Map<String, Object>> configMaps = new ArrayList<>();
+			for (Object document : documents) {
+				if (document instanceof Map && "ConfigMap".equals(((Map<?, ?>) document).get("kind"))) {
+					@SuppressWarnings("unchecked")
+					Map<String, Object> configMap = (Map<String, Object>) document;
+					configMaps.add(configMap);
+				}
+			}
+			if (configMaps.isEmpty()) {
+				throw new IllegalArgumentException("No ConfigMap in " + configPath);
+			}
+			Set<Map<String, Object>> changed = Collections.newSetFromMap(new IdentityHashMap<>());
 			for (Entry<Object, Object> entry : props.entrySet()) {
-				data.put(entry.getKey().toString(), entry.getValue().toString());
+				String key = entry.getKey().toString();
+				Map<String, Object> configMap = configMaps.stream().filter(candidate -> holds(data(candidate), key))
+						.findFirst().orElse(configMaps.get(configMaps.size() - 1));
+				changed.add(configMap);
+				Map<String, Object> data = data(configMap);
+				Object file = data.get(ConfigMapLayout.PROPERTIES_FILE);
+				if (file != null) {
+					// Laid out again as the generator does, sorted by key, so no plain value is left behind.
+					SortedMap<String, String> properties = new TreeMap<>();
+					load(file.toString()).forEach((name, value) -> properties.put(name.toString(), value.toString()));
+					properties.put(key, entry.getValue().toString());
+					StringBuilder lines = new StringBuilder();
+					properties.forEach((name, value) -> lines.append(ConfigMapLayout.propertyLine(name, value)));
+					data.put(ConfigMapLayout.PROPERTIES_FILE, lines.toString());
+				} else {
+					data.put(key, entry.getValue().toString());
+				}
+			}
+			Map<String, String> renamed = renameImmutable(configMaps, changed);
+			try (Writer writer = Files.newBufferedWriter(configPath, StandardCharsets.UTF_8)) {
+				yaml.dumpAll(documents.iterator(), writer);
+			}
+			if (!renamed.isEmpty()) {
+				updateReferences(pairedDeployment(configPath), renamed);
 			}
-			os = new FileWriter(configPath);
-			yaml.dump(obj, os);
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
-		} finally {
-			if (os != null) {
-				try {
-					os.close();
-				} catch (IOException e) {
-					throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Names the changed immutable ConfigMaps after their new contents, and labels all of them with the new generation,
+	 * as the generator does.
+	 *
+	 * @return the new name of each renamed ConfigMap, by its previous name.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<String, String> renameImmutable(List<Map<String, Object>> configMaps, Set<Map<String, Object>> changed) {
+		Map<String, String> renamed = new LinkedHashMap<>();
+		List<String> names = new ArrayList<>();
+		for (Map<String, Object> configMap : configMaps) {
+			Map<String, Object> metadata = (Map<String, Object>) configMap.get("metadata");
+			String name = metadata.get("name").toString();
+			if (Boolean.TRUE.equals(configMap.get("immutable")) && changed.contains(configMap)) {
+				List<String> contents = new ArrayList<>();
+				for (String field : new String[]{"data", "binaryData"}) {
+					if (configMap.get(field) instanceof Map) {
+						new TreeMap<>((Map<String, Object>) configMap.get(field)).forEach((key, value) -> contents.add(field + ":" + key + "=" + value));
+					}
 				}
+				String newName = name.replaceFirst("-[0-9a-f]{10}$", "") + "-" + ContentHash.of(contents.toArray(new String[0])).substring(0, 10);
+				metadata.put("name", newName);
+				renamed.put(name, newName);
+				name = newName;
 			}
+			names.add(name);
+		}
+		if (!renamed.isEmpty()) {
+			String generation = ContentHash.of(names.toArray(new String[0])).substring(0, 16);
+			for (Map<String, Object> configMap : configMaps) {
+				Object labels = ((Map<String, Object>) configMap.get("metadata")).get("labels");
+				if (labels instanceof Map && ((Map<String, Object>) labels).containsKey(ConfigMapLayout.GENERATION_LABEL)) {
+					((Map<String, Object>) labels).put(ConfigMapLayout.GENERATION_LABEL, generation);
+				}
+			}
+		}
+		return renamed;
+	}
+
+	/**
+	 * <code>dir/a-configmap-dev.yml</code> is paired with <code>dir/a-deployment-dev.yml</code>.
+	 */
+	static Path pairedDeployment(Path configMapFile) {
+		String fileName = configMapFile.getFileName().toString();
+		int infix = fileName.lastIndexOf(CONFIGMAP_INFIX);
+		if (infix < 0) {
+			throw new IllegalArgumentException("Not an <artifactId>" + CONFIGMAP_INFIX + "<env>.yml file: " + configMapFile);
+		}
+		return configMapFile.resolveSibling(fileName.substring(0, infix) + DEPLOYMENT_INFIX + fileName.substring(infix + CONFIGMAP_INFIX.length()));
+	}
+
+	private static void updateReferences(Path deploymentPath, Map<String, String> renamed) throws IOException {
+		if (!Files.isRegularFile(deploymentPath)) {
+			throw new IllegalStateException("Renamed the immutable ConfigMaps " + renamed + ", but found no " + deploymentPath + " to point at them");
+		}
+		String deployment = new String(Files.readAllBytes(deploymentPath), StandardCharsets.UTF_8);
+		for (Entry<String, String> name : renamed.entrySet()) {
+			deployment = deployment.replaceAll("(?<![\\w.-])" + Pattern.quote(name.getKey()) + "(?![\\w.-])", Matcher.quoteReplacement(name.getValue()));
+		}
+		Files.write(deploymentPath, deployment.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> data(Map<String, Object> configMap) {
+		if (!(configMap.get("data") instanceof Map)) {
+			configMap.put("data", new LinkedHashMap<String, Object>());
 		}
+		return (Map<String, Object>) configMap.get("data");
 	}
 
-	private static void updateProperties(String filePath, Map<Object, Object> props) {
-		File file = new File(filePath);
+	private static boolean holds(Map<String, Object> data, String key) {
+		Object file = data.get(ConfigMapLayout.PROPERTIES_FILE);
+		return file == null ? data.containsKey(key) : load(file.toString()).containsKey(key);
+	}
+
+	private static Properties load(String file) {
+		Properties properties = new Properties();
+		try {
+			properties.load(new StringReader(file));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return properties;
+	}
+
+	private static void updateProperties(Path filePath, Map<Object, Object> props) {
 		PropertiesConfiguration config = new PropertiesConfiguration();
 		PropertiesConfigurationLayout layout = new PropertiesConfigurationLayout();
 		try {
-			layout.load(config, new InputStreamReader(new FileInputStream(file)));
+			try (Reader reader = Files.newBufferedReader(filePath, StandardCharsets.ISO_8859_1)) {
+				layout.load(config, reader);
+			}
 			for (Entry<Object, Object> entry : props.entrySet()) {
 				config.setProperty(entry.getKey().toString(), entry.getValue());
 			}
-			layout.save(config, new FileWriter(filePath, false));
+			try (Writer writer = Files.newBufferedWriter(filePath, StandardCharsets.ISO_8859_1)) {
+				layout.save(config, writer);
+			}
 		} catch (ConfigurationException e) {
-			e.printStackTrace();
+			throw new IllegalStateException("Cannot update " + filePath, e);
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
 		}
 	}
 
-	private static String encrypt(String password, String value) {
-		BasicTextEncryptor textEncryptor = new BasicTextEncryptor();
-		textEncryptor.setPassword(password);
-		return textEncryptor.encrypt(value);
+	/**
+	 * Round robins over a fixed number of encryptors, each keyed once, in the manner of jasypt's
+	 * PooledPBEStringEncryptor. It pools {@link BasicTextEncryptor}s rather than using PooledPBEStringEncryptor itself
+	 * so that the output stays exactly what single file runs have always produced (and jasypt-spring-boot decrypts):
+	 * BasicTextEncryptor fixes its algorithm and IV generator internally.
+	 */
+	private static final class EncryptorPool {
+
+		private final BasicTextEncryptor[] encryptors;
+		private final AtomicInteger next = new AtomicInteger();
+
+		EncryptorPool(String password) {
+			encryptors = new BasicTextEncryptor[Runtime.getRuntime().availableProcessors()];
+			for (int i = 0; i < encryptors.length; i++) {
+				encryptors[i] = new BasicTextEncryptor();
+				encryptors[i].setPassword(password);
+			}
+		}
+
+		String encrypt(String value) {
+			return encryptors[Math.floorMod(next.getAndIncrement(), encryptors.length)].encrypt(value);
+		}
 	}
 
 }
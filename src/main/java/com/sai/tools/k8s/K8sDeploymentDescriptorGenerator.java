@@ -1,20 +1,25 @@
 package com.sai.tools.k8s;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
+import com.sai.tools.k8s.GenerationMetrics.Phase;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.UncheckedIOException;
-import java.nio.charset.Charset;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 import static com.sai.tools.k8s.PropertiesNormalizer.*;
 import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
 // TODO extract as a separate maven plugin.
 
 /**
@@ -23,7 +28,11 @@ import static java.util.stream.Collectors.joining;
  * @author Sai.
  */
 public class K8sDeploymentDescriptorGenerator {
-    private static final String SPRING_PROPERTY_FILES_BASE_DIR = "src/main/resources";
+    private static final String DEFAULT_ENVIRONMENT = "default";
+    private static final String ENVIRONMENT_STATE_PREFIX = "environment.";
+    private static final String SCRIPTS_STATE = "scripts";
+    private static final String SERVER_PORT = "server.port";
+    private static final String RANDOM = "random";
 
     private static String SCOPED_VARIABLE_ARTIFACT_ID = "artifactId";
     private static String SCOPED_VARIABLE_PROPERTIES = "properties";
@@ -33,146 +42,614 @@ public class K8sDeploymentDescriptorGenerator {
     private static String SCOPED_VARIABLE_FULLY_QUALIFIED_DOCKER_IMAGE_NAME = "fullyQualifiedDockerImageName";
     private static String SCOPED_VARIABLE_REPLICAS = "replicas";
     private static String SCOPED_VARIABLE_VOLUME_MOUNT = "volumeMount";
+    private static String SCOPED_VARIABLE_BINARY_DATA = "binaryData";
+    private static String SCOPED_VARIABLE_CONFIG_MAP_LABELS = "configMapLabels";
+    private static String SCOPED_VARIABLE_CONFIG_MAP_IMMUTABLE = "configMapImmutable";
+    private static String SCOPED_VARIABLE_CONFIG_MAP_RETENTION = "configMapRetention";
+    private static String SCOPED_VARIABLE_ROLLOUT_TIMEOUT = "rolloutTimeout";
+    private static String SCOPED_VARIABLE_DEPLOYMENT_REPLICAS = "deploymentReplicas";
+    private static String SCOPED_VARIABLE_RESOURCES = "resources";
+    private static String SCOPED_VARIABLE_HPA_MIN_REPLICAS = "hpaMinReplicas";
+    private static String SCOPED_VARIABLE_HPA_MAX_REPLICAS = "hpaMaxReplicas";
+    private static String SCOPED_VARIABLE_HPA_METRICS = "hpaMetrics";
+    private static String SCOPED_VARIABLE_PROBES = "probes";
+    private static String SCOPED_VARIABLE_LIFECYCLE = "lifecycle";
+    private static String SCOPED_VARIABLE_TERMINATION_GRACE_PERIOD = "terminationGracePeriod";
+    private static String SCOPED_VARIABLE_ENV_FROM = "envFrom";
+    private static String SCOPED_VARIABLE_INIT_CONTAINERS = "initContainers";
+    private static String SCOPED_VARIABLE_CONTAINER_ENV = "containerEnv";
+    private static String SCOPED_VARIABLE_EXTRA_VOLUME_MOUNTS = "extraVolumeMounts";
+    private static String SCOPED_VARIABLE_EXTRA_VOLUMES = "extraVolumes";
 
 
     public static void generate(final String projectArtifactId, final String projectVersion, final String fullyQualifiedDockerImageName, final int replicas, final String volumeMount) throws Exception {
-        Map<String, Properties> environmentsAndProperties = new HashMap<>();
-        Map<String, TreeMap<Object, Object>> mergedPropertiesPerEnvironment = new HashMap<>();
-        Files.walk(Paths.get(SPRING_PROPERTY_FILES_BASE_DIR))
-                .filter(path -> path.toFile().isFile())
-                .filter(path -> !path.toString().startsWith("."))
-                .filter(path -> path.toString().endsWith(".properties"))
-                .forEach(path -> {
-                    try {
-                        File file = path.toFile();
-                        String fileName = file.getName();
-                        String environment = !fileName.contains("application-") ? "" : fileName
-                                .replace("application-", "")
-                                .replace(".properties", "");
-                        Properties properties = new Properties();
-                        properties.load(new FileInputStream(file));
-                        injectDefaultScopedProperties(properties);
-                        environmentsAndProperties.put(environment, toEnvironmentVariableFriendlyProperties(properties));
-                    } catch (IOException ex) {
-                        throw new UncheckedIOException(ex);
-                    }
-                });
-        Properties base = environmentsAndProperties.get("");
-        environmentsAndProperties
-                .keySet()
-                .stream()
+        generate(new GenerationSettings(projectArtifactId, projectVersion, fullyQualifiedDockerImageName)
+                .replicas(replicas)
+                .volumeMount(volumeMount));
+    }
+
+    /**
+     * Generates the descriptors, rendering and writing every environment as an independent task on a pool of at most
+     * {@link GenerationSettings#getParallelism()} threads. The outcome does not depend on the order in which those
+     * tasks complete. In incremental mode, environments whose property files, templates and settings hash the same as
+     * in the previous run are left untouched.
+     */
+    public static GenerationReport generate(final GenerationSettings settings) throws Exception {
+        return generate(settings, new GenerationCache());
+    }
+
+    /**
+     * As {@link #generate(GenerationSettings)}, reusing the templates and normalised property sources of the given
+     * cache, which is typically shared by all the modules of a build.
+     */
+    public static GenerationReport generate(final GenerationSettings settings, final GenerationCache cache) throws Exception {
+        GenerationReport report = new GenerationReport();
+        GenerationMetrics metrics = report.getMetrics();
+        Map<String, Properties> propertySources = readPropertySources(settings, metrics);
+        metrics.propertySources(propertySources.size());
+        List<String> environments = propertySources.keySet().stream()
                 .filter(key -> key.length() > 0)
-                .forEach(env -> {
-                    TreeMap<Object, Object> merged = merge(base, environmentsAndProperties.get(env));
-                    addScopedProperties(projectArtifactId, projectVersion, fullyQualifiedDockerImageName, replicas, volumeMount, merged);
-                    mergedPropertiesPerEnvironment.put(env, merged);
-                });
-        if (mergedPropertiesPerEnvironment.isEmpty()) {
-            TreeMap<Object, Object> merged = merge(environmentsAndProperties.get(""));
-            addScopedProperties(projectArtifactId, projectVersion, fullyQualifiedDockerImageName, replicas, volumeMount, merged);
-            mergedPropertiesPerEnvironment.put("default", merged);
-        }
-        // Generate yml files using the templates.
-        String configMapTemplate = IOUtils.toString(K8sDeploymentDescriptorGenerator.class.getClassLoader().getResourceAsStream("configmap-template.yml"), Charset.defaultCharset());
-        String deployTemplate = IOUtils.toString(K8sDeploymentDescriptorGenerator.class.getClassLoader().getResourceAsStream("service-deployment-template.yml"), Charset.defaultCharset());
-        Set<String> deploymentTemplateVariableNames = extractVariableNames(deployTemplate);
-        Set<String> configMapTemplateVariableNames = extractVariableNames(configMapTemplate);
-        Map<String, String> generatedDeploymentYmls = generate(projectArtifactId, projectVersion, mergedPropertiesPerEnvironment, deployTemplate, deploymentTemplateVariableNames);
-        Map<String, String> generatedConfigMapYmls = generate(projectArtifactId, projectVersion, mergedPropertiesPerEnvironment, configMapTemplate, configMapTemplateVariableNames);
-        Map<String, String> generatedEncryptedProperties = generateProperties(mergedPropertiesPerEnvironment);
-        writeFile(projectArtifactId + "-" + "configmap", generatedConfigMapYmls, ".yml");
-        writeFile(projectArtifactId + "-" + "deployment", generatedDeploymentYmls, ".yml");
-        //writeFile(projectArtifactId + "-" + "encrypted", generatedEncryptedProperties, ".properties");
-        // Replace the variables in the shell scripts.
-        generateScripts(projectArtifactId, mergedPropertiesPerEnvironment, "deploy_configs.sh", IOUtils.toString(K8sDeploymentDescriptorGenerator.class.getClassLoader().getResourceAsStream("deploy_configs.sh"), Charset.defaultCharset()));
-        generateScripts(projectArtifactId, mergedPropertiesPerEnvironment, "deploy_service.sh", IOUtils.toString(K8sDeploymentDescriptorGenerator.class.getClassLoader().getResourceAsStream("deploy_service.sh"), Charset.defaultCharset()));
-        generateScripts(projectArtifactId, mergedPropertiesPerEnvironment, "logs.sh", IOUtils.toString(K8sDeploymentDescriptorGenerator.class.getClassLoader().getResourceAsStream("logs.sh"), Charset.defaultCharset()));
-    }
-
-    private static void addScopedProperties(String projectArtifactId, String projectVersion, String fullyQualifiedDockerImageName, int replicas, String volumeMount, TreeMap<Object, Object> merged) {
-        merged.put("build_version", projectVersion);
-        merged.put(SCOPED_VARIABLE_ARTIFACT_ID, projectArtifactId);
-        merged.put(SCOPED_VARIABLE_SERVICE_NAME, projectArtifactId);
-        merged.put(SCOPED_VARIABLE_SERVICE_VERSION, projectVersion);
-        merged.put(SCOPED_VARIABLE_FULLY_QUALIFIED_DOCKER_IMAGE_NAME, fullyQualifiedDockerImageName);
-        merged.put(SCOPED_VARIABLE_VOLUME_MOUNT, volumeMount);
+                .sorted()
+                .collect(toList());
+        if (environments.isEmpty()) {
+            environments = Collections.singletonList(DEFAULT_ENVIRONMENT);
+        }
+        CompiledTemplate configMapTemplate = cache.template("configmap-template.yml");
+        CompiledTemplate deployTemplate = cache.template("service-deployment-template.yml");
+        CompiledTemplate hpaTemplate = cache.template("hpa-template.yml");
+        List<CompiledTemplate> scripts = new ArrayList<>(Arrays.asList(
+                cache.template("deploy_configs.sh"),
+                cache.template("deploy_service.sh"),
+                cache.template("logs.sh")));
+        if (settings.isImmutableConfigMaps()) {
+            scripts.add(cache.template("prune_configs.sh"));
+        }
+        if (settings.isDiffManifests()) {
+            scripts.add(cache.template("deploy_changes.sh"));
+        }
+
+        // Work out which environments have to be rendered again.
+        Path outputDir = settings.getOutputDirectory();
+        String artifactId = settings.getArtifactId();
+        BuildState previous = settings.isIncremental() ? BuildState.load(outputDir) : BuildState.empty();
+        BuildState current = BuildState.empty();
+        Map<String, String> sourceHashes = new HashMap<>();
+        propertySources.forEach((env, source) -> sourceHashes.put(env, hashOf(source)));
+        String baseHash = sourceHashes.get("");
+        Map<String, List<String>> profileChains = new HashMap<>();
+        for (String env : environments) {
+            List<String> chain = profileChain(env, settings.getProfileParents(), propertySources.keySet());
+            profileChains.put(env, chain);
+            String[] inputs = new String[5 + chain.size()];
+            inputs[0] = settings.fingerprint();
+            inputs[1] = configMapTemplate.contentHash();
+            inputs[2] = deployTemplate.contentHash();
+            inputs[3] = hpaTemplate.contentHash();
+            inputs[4] = baseHash;
+            for (int i = 0; i < chain.size(); i++) {
+                inputs[5 + i] = chain.get(i) + "=" + sourceHashes.get(chain.get(i));
+            }
+            current.put(ENVIRONMENT_STATE_PREFIX + env, ContentHash.of(inputs));
+        }
+        String scriptsEnvironment = environments.get(0);
+        current.put(SCRIPTS_STATE, ContentHash.of(settings.fingerprint(), current.get(ENVIRONMENT_STATE_PREFIX + scriptsEnvironment),
+                scripts.stream().map(CompiledTemplate::contentHash).collect(joining(","))));
+        ServiceMetadata previousMetadata = ServiceMetadata.load(ServiceMetadata.file(outputDir, artifactId));
+        List<String> staleEnvironments = new ArrayList<>();
+        for (String env : environments) {
+            if (previous.isUnchanged(current, ENVIRONMENT_STATE_PREFIX + env)
+                    && previousMetadata != null && previousMetadata.getPortsPerEnvironment().containsKey(env)
+                    && Files.isRegularFile(outputFile(outputDir, artifactId + "-configmap", env, ".yml"))
+                    && Files.isRegularFile(outputFile(outputDir, artifactId + "-deployment", env, ".yml"))) {
+                report.upToDate(env);
+            } else {
+                staleEnvironments.add(env);
+            }
+        }
+        boolean scriptsStale = !previous.isUnchanged(current, SCRIPTS_STATE)
+                || scripts.stream().anyMatch(script -> !Files.isRegularFile(outputDir.resolve(artifactId + "-" + script.name())));
+        OutputWriter writer = new OutputWriter();
+        if (settings.isDiffManifests()) {
+            // Nothing changed since the previous build in the environments left as they are.
+            for (String env : report.getUpToDateEnvironments()) {
+                writeChanges(writer, outputDir, artifactId, env, ManifestDiff.none());
+            }
+        }
+        if (staleEnvironments.isEmpty() && !scriptsStale) {
+            writeMetrics(settings, report);
+            return report;
+        }
+        // Forget the previous state until this run has completed, so that an interrupted run is never taken as up to date.
+        BuildState.delete(outputDir);
+
+        LayeredProperties base = withSource(LayeredProperties.of(null), propertySources.get(""), baseHash, cache, metrics);
+        // Parent profiles are normalised once and shared by every environment inheriting from them.
+        Map<String, LayeredProperties> parentLayers = new HashMap<>();
+        Map<String, LayeredProperties> parentLayerOfEnvironment = new HashMap<>();
+        for (String env : environments) {
+            LayeredProperties parent = base;
+            List<String> chain = profileChains.get(env);
+            for (String profile : chain.subList(0, chain.size() - 1)) {
+                LayeredProperties inherited = parent;
+                parent = parentLayers.computeIfAbsent(profile, p -> withSource(inherited, propertySources.get(p), sourceHashes.get(p), cache, metrics));
+            }
+            parentLayerOfEnvironment.put(env, parent);
+        }
+        // Generate yml files using the templates, one task per environment.
+        Map<String, LayeredProperties> mergedPropertiesPerEnvironment = new TreeMap<>();
+        Map<String, ConfigMapLayout> layouts = new ConcurrentHashMap<>();
+        Map<String, ManifestValidator.Findings> validations = new ConcurrentHashMap<>();
+        Map<String, ManifestDiff> diffs = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(settings.getParallelism(), staleEnvironments.size())));
+        try {
+            Map<String, Future<LayeredProperties>> tasks = new LinkedHashMap<>();
+            for (String env : staleEnvironments) {
+                Properties envSource = propertySources.get(env);
+                LayeredProperties parent = parentLayerOfEnvironment.get(env);
+                tasks.put(env, executor.submit(() -> {
+                    LayeredProperties withEnvironment = withSource(parent, envSource, sourceHashes.get(env), cache, metrics);
+                    LayeredProperties merged = metrics.time(Phase.MERGE, () -> mergeEnvironment(settings, withEnvironment));
+                    ConfigMapLayout layout;
+                    String configMaps;
+                    String deployment;
+                    try (GenerationMetrics.Timer ignored = metrics.start(Phase.RENDER)) {
+                        layout = configMapLayout(settings, merged, () -> rawProperties(settings, propertySources, profileChains.get(env), merged));
+                        configMaps = renderConfigMaps(settings, merged, configMapTemplate, layout);
+                        ContainerResources resources = containerResources(settings, merged);
+                        deployment = render(settings, merged, deployTemplate, layout, resources);
+                        if (resources.isAutoscaled()) {
+                            deployment += "---\n" + render(settings, merged, hpaTemplate, layout, resources);
+                        }
+                    }
+                    metrics.keys(layout.propertyCount());
+                    String manifests = configMaps + "---\n" + deployment;
+                    ManifestDiff diff = null;
+                    Path previousManifests = settings.getPreviousManifestsDirectory().resolve(artifactId + "-manifests-" + env + ".yml");
+                    if (settings.isDiffManifests()) {
+                        try (GenerationMetrics.Timer ignored = metrics.start(Phase.DIFF)) {
+                            diff = ManifestDiff.between(readIfExists(previousManifests), manifests);
+                        }
+                        diffs.put(env, diff);
+                    }
+                    try (GenerationMetrics.Timer ignored = metrics.start(Phase.WRITE)) {
+                        if (diff == null || diff.isChanged()
+                                || !Files.isRegularFile(outputFile(outputDir, artifactId + "-configmap", env, ".yml"))
+                                || !Files.isRegularFile(outputFile(outputDir, artifactId + "-deployment", env, ".yml"))) {
+                            writeFile(writer, outputDir, artifactId + "-" + "configmap", env, configMaps, ".yml");
+                            writeFile(writer, outputDir, artifactId + "-" + "deployment", env, deployment, ".yml");
+                        }
+                        if (diff != null) {
+                            writeChanges(writer, outputDir, artifactId, env, diff);
+                            if (diff.isChanged() || !Files.isRegularFile(previousManifests)) {
+                                // For the next build to compare with.
+                                writer.write(previousManifests, manifests);
+                            }
+                        }
+                    }
+                    layouts.put(env, layout);
+                    if (settings.isValidateManifests()) {
+                        try (GenerationMetrics.Timer ignored = metrics.start(Phase.VALIDATE)) {
+                            ManifestValidator.Findings findings = new ManifestValidator.Findings();
+                            ManifestValidator.validate(artifactId + "-configmap-" + env + ".yml", configMaps, findings);
+                            ManifestValidator.validate(artifactId + "-deployment-" + env + ".yml", deployment, findings);
+                            validations.put(env, findings);
+                        }
+                    }
+                    return merged;
+                }));
+            }
+            for (Map.Entry<String, Future<LayeredProperties>> task : tasks.entrySet()) {
+                mergedPropertiesPerEnvironment.put(task.getKey(), await(task.getValue()));
+                report.rendered(task.getKey());
+                report.configMapSizes(task.getKey(), layouts.get(task.getKey()).shardSizes());
+                if (diffs.containsKey(task.getKey())) {
+                    report.manifestChanges(task.getKey(), diffs.get(task.getKey()).summary());
+                }
+                ManifestValidator.Findings findings = validations.get(task.getKey());
+                if (findings != null) {
+                    report.validated(task.getKey(), findings.errors(), findings.warnings());
+                    if (!findings.errors().isEmpty()) {
+                        // Never take manifests with errors as up to date.
+                        current.remove(ENVIRONMENT_STATE_PREFIX + task.getKey());
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // Hand the service name and ports over to the reactor wide goals.
+        Map<String, String> ports = new TreeMap<>();
+        for (String env : environments) {
+            LayeredProperties merged = mergedPropertiesPerEnvironment.get(env);
+            ports.put(env, merged != null ? String.valueOf(extractProperty(merged, SERVER_PORT)) : previousMetadata.getPortsPerEnvironment().get(env));
+        }
+        try (GenerationMetrics.Timer ignored = metrics.start(Phase.WRITE)) {
+            writer.write(ServiceMetadata.file(outputDir, artifactId), new ServiceMetadata(artifactId, ports).render());
+        }
+        if (scriptsStale) {
+            // Replace the variables in the shell scripts.
+            LayeredProperties scriptProperties = mergedPropertiesPerEnvironment.get(scriptsEnvironment);
+            if (scriptProperties == null) {
+                scriptProperties = mergeEnvironment(settings, withSource(parentLayerOfEnvironment.get(scriptsEnvironment),
+                        propertySources.get(scriptsEnvironment), sourceHashes.get(scriptsEnvironment), cache, metrics));
+            }
+            try (GenerationMetrics.Timer ignored = metrics.start(Phase.SCRIPTS)) {
+                for (CompiledTemplate script : scripts) {
+                    generateScript(writer, settings, scriptProperties, script);
+                }
+            }
+            report.scriptsRendered();
+        }
+        try (GenerationMetrics.Timer ignored = metrics.start(Phase.WRITE)) {
+            current.store(outputDir);
+        }
+        report.files(writer.getWritten(), writer.getSkipped());
+        metrics.written(writer.getBytesWritten());
+        writeMetrics(settings, report);
+        return report;
+    }
+
+    /**
+     * Closes the metrics of the run and writes them next to the manifests, as JSON.
+     */
+    private static void writeMetrics(final GenerationSettings settings, final GenerationReport report) {
+        report.getMetrics().finish();
+        new OutputWriter().write(settings.getOutputDirectory().resolve(GenerationMetrics.REPORT_FILE),
+                report.getMetrics().toJson(settings, report));
+    }
+
+    /**
+     * Reads every Spring property source (<code>.properties</code> and <code>.yml</code>), keyed by the environment
+     * (profile) it belongs to. The base <code>application.*</code> file is keyed by the empty string. Within one
+     * environment, <code>.properties</code> files take precedence over YAML, and later paths over earlier ones.
+     */
+    static Map<String, Properties> readPropertySources(final GenerationSettings settings) throws IOException {
+        return readPropertySources(settings, new GenerationMetrics());
+    }
+
+    static Map<String, Properties> readPropertySources(final GenerationSettings settings, final GenerationMetrics metrics) throws IOException {
+        PropertySourceScanner scanner = new PropertySourceScanner(settings.getPropertyIncludes(), settings.getPropertyExcludes(), settings.getPropertyScanDepth(), settings.isIncludeYaml());
+        Map<String, Properties> yamlSources = new HashMap<>();
+        Map<String, Properties> propertiesSources = new HashMap<>();
+        List<Path> paths;
+        try (GenerationMetrics.Timer ignored = metrics.start(Phase.SCAN)) {
+            paths = scanner.scan(settings.getResourcesDirectory());
+        }
+        try (GenerationMetrics.Timer ignored = metrics.start(Phase.LOAD)) {
+            for (Path path : paths) {
+                String environment = PropertySourceScanner.environmentOf(path);
+                if (PropertySourceScanner.isYaml(path)) {
+                    try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                        YamlPropertySourceLoader.load(reader, environment)
+                                .forEach((env, properties) -> yamlSources.computeIfAbsent(env, e -> new Properties()).putAll(properties));
+                    }
+                } else {
+                    try (InputStream in = Files.newInputStream(path)) {
+                        propertiesSources.computeIfAbsent(environment, e -> new Properties()).load(in);
+                    }
+                }
+            }
+        }
+        Map<String, Properties> propertySources = new HashMap<>(yamlSources);
+        propertiesSources.forEach((env, properties) -> propertySources.merge(env, properties, (yaml, props) -> {
+            yaml.putAll(props);
+            return yaml;
+        }));
+        return propertySources;
+    }
+
+    static Map<Object, Object> normalize(final Properties source) {
+        if (source == null) {
+            return null;
+        }
+        return toEnvironmentVariableFriendlyProperties(source);
+    }
+
+    /**
+     * Layers a property source over the given layers: its normalised form, shared through the cache, then a
+     * <code>random</code> of its own, so that no two modules or runs share one.
+     */
+    static LayeredProperties withSource(final LayeredProperties parent, final Properties source, final String sourceHash, final GenerationCache cache,
+                                        final GenerationMetrics metrics) {
+        if (source == null) {
+            return parent;
+        }
+        Map<Object, Object> normalized = cache.normalizedProperties(sourceHash, () -> metrics.time(Phase.NORMALIZE, () -> normalize(source)));
+        return metrics.time(Phase.MERGE, () -> parent.with(normalized).with(defaultScopedProperties()));
+    }
+
+    /**
+     * Layers the properties scoped by the build (artifact, version, image...) over the environment's properties.
+     */
+    static LayeredProperties mergeEnvironment(final GenerationSettings settings, final LayeredProperties merged) {
+        return merged.with(scopedProperties(settings.getArtifactId(), settings.getVersion(), settings.getFullyQualifiedDockerImageName(), settings.getReplicas(), settings.getVolumeMount(), merged));
+    }
+
+    /**
+     * The chain of profiles an environment inherits from, outermost first and ending with the environment itself,
+     * for example [prod, prod-eu] for <code>prod-eu</code> -&gt; <code>prod</code>.
+     */
+    static List<String> profileChain(final String environment, final Map<String, String> profileParents, final Set<String> knownProfiles) {
+        LinkedList<String> chain = new LinkedList<>();
+        for (String profile = environment; profile != null; profile = profileParents.get(profile)) {
+            if (chain.contains(profile)) {
+                throw new IllegalArgumentException("Cyclic profile inheritance: " + profile + " -> " + String.join(" -> ", chain));
+            }
+            if (!profile.equals(environment) && !knownProfiles.contains(profile)) {
+                throw new IllegalArgumentException("Profile " + chain.getFirst() + " inherits from " + profile + ", which has no property source");
+            }
+            chain.addFirst(profile);
+        }
+        return chain;
+    }
+
+    /**
+     * Hashes the properties in key order, so the hash only changes when the effective properties do.
+     */
+    private static String hashOf(final Map<Object, Object> source) {
+        if (source == null) {
+            return null;
+        }
+        return ContentHash.of(new TreeMap<>(source).entrySet().stream()
+                .flatMap(entry -> Stream.of(entry.getKey().toString(), entry.getValue().toString()))
+                .toArray(String[]::new));
+    }
+
+    private static Map<Object, Object> scopedProperties(String projectArtifactId, String projectVersion, String fullyQualifiedDockerImageName, int replicas, String volumeMount, LayeredProperties merged) {
+        Map<Object, Object> scoped = new HashMap<>();
+        scoped.put("build_version", projectVersion);
+        scoped.put(SCOPED_VARIABLE_ARTIFACT_ID, projectArtifactId);
+        scoped.put(SCOPED_VARIABLE_SERVICE_NAME, projectArtifactId);
+        scoped.put(SCOPED_VARIABLE_SERVICE_VERSION, projectVersion);
+        scoped.put(SCOPED_VARIABLE_FULLY_QUALIFIED_DOCKER_IMAGE_NAME, fullyQualifiedDockerImageName);
+        scoped.put(SCOPED_VARIABLE_VOLUME_MOUNT, volumeMount);
         if (!merged.containsKey("server.port") && !merged.containsKey("server_port")) {
-            merged.put("server_port", "8080"); // default spring boot.
+            scoped.put("server_port", "8080"); // default spring boot.
+        }
+        scoped.put(SCOPED_VARIABLE_REPLICAS, replicas);
+        return scoped;
+    }
+
+    private static void generateScript(OutputWriter writer, GenerationSettings settings, LayeredProperties propertiesFromAnyOneEnvironment, CompiledTemplate script) {
+        String contents = script.render(variable -> {
+            if (SCOPED_VARIABLE_CONFIG_MAP_RETENTION.equals(variable)) {
+                return settings.getConfigMapRetention();
+            }
+            if (SCOPED_VARIABLE_ROLLOUT_TIMEOUT.equals(variable)) {
+                return settings.getRolloutTimeout();
+            }
+            return extractProperty(propertiesFromAnyOneEnvironment, variable);
+        });
+        writer.write(settings.getOutputDirectory().resolve(settings.getArtifactId() + "-" + script.name()), contents);
+    }
+
+    private static Map<Object, Object> defaultScopedProperties() {
+        // Inject Random.
+        return Collections.singletonMap(RANDOM, UUID.randomUUID().toString());
+    }
+
+    /**
+     * Writes the change summary of an environment and the files applying its changes, removing those of the
+     * previous build.
+     */
+    private static void writeChanges(final OutputWriter writer, final Path outputDir, final String artifactId, final String environment,
+                                     final ManifestDiff diff) throws IOException {
+        Path patchDir = outputDir.resolve(artifactId + "-patches-" + environment);
+        Map<String, String> patchFiles = diff.patchFiles();
+        if (Files.isDirectory(patchDir)) {
+            try (Stream<Path> files = Files.list(patchDir)) {
+                for (Path file : files.collect(toList())) {
+                    if (!patchFiles.containsKey(file.getFileName().toString())) {
+                        Files.delete(file);
+                    }
+                }
+            }
         }
-        merged.put(SCOPED_VARIABLE_REPLICAS, replicas);
+        patchFiles.forEach((name, contents) -> writer.write(patchDir.resolve(name), contents));
+        writeFile(writer, outputDir, artifactId + "-changes", environment, diff.toJson(environment), ".json");
+    }
+
+    private static String readIfExists(final Path file) throws IOException {
+        return Files.isRegularFile(file) ? new String(Files.readAllBytes(file), StandardCharsets.UTF_8) : null;
+    }
+
+    private static void writeFile(final OutputWriter writer, final Path outputDir, final String fileNamePrefix, final String environment, final String contents, String fileExtension) {
+        writer.write(outputFile(outputDir, fileNamePrefix, environment, fileExtension), contents);
+    }
+
+    private static Path outputFile(final Path outputDir, final String fileNamePrefix, final String environment, final String fileExtension) {
+        return outputDir.resolve(fileNamePrefix + "-" + environment + fileExtension);
     }
 
-    private static void generateScripts(String projectArtifactId, Map<String, TreeMap<Object, Object>> mergedPropertiesPerEnvironment, String fileName, String contents) {
+    private static <T> T await(final Future<T> task) throws Exception {
         try {
-            Set<String> variables = extractVariableNames(contents);
-            TreeMap<Object, Object> propertiesFromAnyOneEnvironment = mergedPropertiesPerEnvironment.entrySet().iterator().next().getValue();
-            for (String variable : variables) {
-                contents = contents.replace("${" + variable + "}", extractProperty(propertiesFromAnyOneEnvironment, variable) + "");
+            return task.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
             }
-            FileUtils.write(Paths.get("target", "k8s", projectArtifactId + "-" + fileName).toFile(), contents, Charset.defaultCharset());
-        } catch (IOException ex) {
-            throw new UncheckedIOException(ex);
+            throw (Error) cause;
         }
     }
 
-    private static void injectDefaultScopedProperties(final Properties properties) {
-        // Inject Random.
-        properties.put("random", UUID.randomUUID().toString());
+    /**
+     * Lays the environment's properties out over one or more ConfigMaps, as configured: normalised for
+     * <code>envFrom</code>, or as written for a mounted properties file.
+     *
+     * @param rawProperties the environment's properties before normalisation, only computed for a properties file, or
+     *                      to name the compressed values after their properties.
+     */
+    static ConfigMapLayout configMapLayout(final GenerationSettings settings, final LayeredProperties props,
+                                           final Supplier<SortedMap<Object, Object>> rawProperties) {
+        String configMapName = settings.getArtifactId() + "-config-" + settings.getVersion().toLowerCase();
+        SortedMap<Object, Object> properties = props.toSortedMap();
+        String mode = settings.getConfigMode();
+        if (!ConfigMapLayout.CONFIG_MODE_ENV.equals(mode) && !ConfigMapLayout.CONFIG_MODE_FILE.equals(mode)
+                && !ConfigMapLayout.CONFIG_MODE_AUTO.equals(mode)) {
+            throw new IllegalArgumentException("configMode must be one of env, file or auto, not " + mode);
+        }
+        boolean file = ConfigMapLayout.CONFIG_MODE_FILE.equals(mode)
+                || (ConfigMapLayout.CONFIG_MODE_AUTO.equals(mode) && properties.size() > settings.getConfigModeThreshold());
+        if (file) {
+            properties = rawProperties.get();
+        }
+        if (settings.isImmutableConfigMaps() && properties.remove(RANDOM) != null) {
+            // A fresh random would name new ConfigMaps on every build: derive it from the rest of the configuration.
+            properties.put(RANDOM, UUID.nameUUIDFromBytes(hashOf(properties).getBytes(StandardCharsets.UTF_8)).toString());
+        }
+        if (file) {
+            return ConfigMapLayout.propertiesFile(configMapName, properties, settings.getConfigMapMaxBytes(), settings.isImmutableConfigMaps());
+        }
+        Map<String, String> propertyNames = new HashMap<>();
+        if (settings.getCompressValuesLargerThan() > 0) {
+            for (Object name : rawProperties.get().keySet()) {
+                propertyNames.put(PropertiesNormalizer.toEnvironmentVariableFriendlyString(name.toString()), name.toString());
+            }
+        }
+        return ConfigMapLayout.of(configMapName, properties, settings.getConfigMapMaxBytes(), settings.getCompressValuesLargerThan(),
+                settings.isImmutableConfigMaps(), propertyNames);
     }
 
-    private static void writeFile(final String fileNamePrefix, final Map<String, String> generatedConfigMapYmls, String fileExtension) {
-        generatedConfigMapYmls.forEach((k, v) -> {
-            try {
-                FileUtils.write(Paths.get("target", "k8s", fileNamePrefix + "-" + k + fileExtension).toFile(), v, Charset.defaultCharset());
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
+    /**
+     * An environment's properties as written, for a properties file: the base properties, those of every profile of
+     * its chain, then the properties scoped by the build and the random of the merged properties.
+     */
+    private static SortedMap<Object, Object> rawProperties(final GenerationSettings settings, final Map<String, Properties> propertySources,
+                                                           final List<String> chain, final LayeredProperties merged) {
+        SortedMap<Object, Object> raw = new TreeMap<>();
+        if (propertySources.get("") != null) {
+            raw.putAll(propertySources.get(""));
+        }
+        for (String profile : chain) {
+            if (propertySources.get(profile) != null) {
+                raw.putAll(propertySources.get(profile));
             }
-        });
+        }
+        raw.putAll(scopedProperties(settings.getArtifactId(), settings.getVersion(), settings.getFullyQualifiedDockerImageName(), settings.getReplicas(), settings.getVolumeMount(), merged));
+        raw.put(RANDOM, merged.get(RANDOM));
+        return raw;
     }
 
+    /**
+     * Renders the template once per ConfigMap of the layout, as a multi-document YAML.
+     */
+    static String renderConfigMaps(final GenerationSettings settings,
+                                   final LayeredProperties props,
+                                   final CompiledTemplate template,
+                                   final ConfigMapLayout layout) {
+        return layout.shards().stream()
+                .map(shard -> render(settings, props, template, layout, shard, null, null))
+                .collect(joining("---\n"));
+    }
 
-    private static Map<String, String> generate(final String projectArtifactId,
-                                                final String projectVersion,
-                                                final Map<String, TreeMap<Object, Object>> mergedPropertiesPerEnvironment,
-                                                final String deployTemplate,
-                                                final Set<String> vars) {
-        Map<String, String> generatedFileContents = new HashMap<>();
-        mergedPropertiesPerEnvironment.forEach((env, props) -> {
-            String generated = deployTemplate;
-            Map<Object, Object> contextVars = new HashMap<>();
-            String propertiesDump = props.keySet().stream().map(k -> "  " + k + ": \"" + props.get(k) + "\"").collect(joining("\n"));
-            contextVars.put(SCOPED_VARIABLE_PROPERTIES, propertiesDump);
-            contextVars.put(SCOPED_VARIABLE_CONFIG_MAP_TEMPLATE_NAME, projectArtifactId + "-config-" + projectVersion.toLowerCase());
-            contextVars.putAll(props);
-            for (String variable : vars) {
-                generated = generated.replace("${" + variable + "}", extractProperty(contextVars, variable) + "");
-            }
-            generatedFileContents.put(env, generated);
-        });
-        return generatedFileContents;
+    /**
+     * The resources, autoscaling and JVM sizing of the environment's container.
+     */
+    static ContainerResources containerResources(final GenerationSettings settings, final LayeredProperties props) {
+        return ContainerResources.of(settings, name -> extractProperty(props, name));
     }
 
-    private static Map<String, String> generateProperties(final Map<String, TreeMap<Object, Object>> mergedPropertiesPerEnvironment) {
-        Map<String, String> generatedFileContents = new HashMap<>();
-        mergedPropertiesPerEnvironment.entrySet().stream().forEach(map -> {
-            String propertiesDump = map.getValue().keySet().stream()
-                    .filter(k -> map.getValue().get(k).toString().startsWith("ENC("))
-                    .map(k -> k + "=" + map.getValue().get(k)).collect(joining("\n"));
-            generatedFileContents.put(map.getKey(), propertiesDump.toString());
+    static String render(final GenerationSettings settings,
+                         final LayeredProperties props,
+                         final CompiledTemplate template,
+                         final ConfigMapLayout layout,
+                         final ContainerResources resources) {
+        StartupProfile startup = StartupProfile.of(settings, name -> extractProperty(props, name));
+        return render(settings, props, template, layout, layout.shards().get(0), resources, startup);
+    }
+
+    private static String render(final GenerationSettings settings,
+                                 final LayeredProperties props,
+                                 final CompiledTemplate template,
+                                 final ConfigMapLayout layout,
+                                 final ConfigMapLayout.Shard shard,
+                                 final ContainerResources resources,
+                                 final StartupProfile startup) {
+        return template.render(variable -> {
+            if (SCOPED_VARIABLE_PROPERTIES.equals(variable)) {
+                return shard.renderData();
+            }
+            if (SCOPED_VARIABLE_BINARY_DATA.equals(variable)) {
+                return shard.renderBinaryData();
+            }
+            if (SCOPED_VARIABLE_CONFIG_MAP_TEMPLATE_NAME.equals(variable)) {
+                return shard.name();
+            }
+            if (SCOPED_VARIABLE_CONFIG_MAP_LABELS.equals(variable)) {
+                return layout.labels(settings.getArtifactId());
+            }
+            if (SCOPED_VARIABLE_CONFIG_MAP_IMMUTABLE.equals(variable)) {
+                return layout.immutableField();
+            }
+            if (SCOPED_VARIABLE_ENV_FROM.equals(variable)) {
+                return layout.envFrom();
+            }
+            if (SCOPED_VARIABLE_INIT_CONTAINERS.equals(variable)) {
+                return layout.initContainers(settings.getInitContainerImage());
+            }
+            if (SCOPED_VARIABLE_CONTAINER_ENV.equals(variable)) {
+                Map<String, String> env = new LinkedHashMap<>(layout.containerEnv());
+                String javaToolOptions = Stream.of(resources.javaToolOptions(), startup.javaToolOptions())
+                        .filter(Objects::nonNull)
+                        .collect(joining(" "));
+                if (!javaToolOptions.isEmpty()) {
+                    env.put("JAVA_TOOL_OPTIONS", javaToolOptions);
+                }
+                return containerEnv(env);
+            }
+            if (SCOPED_VARIABLE_PROBES.equals(variable)) {
+                return startup.probes();
+            }
+            if (SCOPED_VARIABLE_LIFECYCLE.equals(variable)) {
+                return startup.lifecycle();
+            }
+            if (SCOPED_VARIABLE_TERMINATION_GRACE_PERIOD.equals(variable)) {
+                return startup.terminationGracePeriod();
+            }
+            if (SCOPED_VARIABLE_DEPLOYMENT_REPLICAS.equals(variable)) {
+                return resources.replicasField();
+            }
+            if (SCOPED_VARIABLE_RESOURCES.equals(variable)) {
+                return resources.resources();
+            }
+            if (SCOPED_VARIABLE_HPA_MIN_REPLICAS.equals(variable)) {
+                return resources.minReplicas();
+            }
+            if (SCOPED_VARIABLE_HPA_MAX_REPLICAS.equals(variable)) {
+                return resources.maxReplicas();
+            }
+            if (SCOPED_VARIABLE_HPA_METRICS.equals(variable)) {
+                return resources.metrics();
+            }
+            if (SCOPED_VARIABLE_EXTRA_VOLUME_MOUNTS.equals(variable)) {
+                return layout.volumeMounts() + startup.volumeMounts();
+            }
+            if (SCOPED_VARIABLE_EXTRA_VOLUMES.equals(variable)) {
+                return layout.volumes() + startup.volumes();
+            }
+            return extractProperty(props, variable);
         });
-        return generatedFileContents;
     }
 
-    private static Object extractProperty(final Map<Object, Object> contextVars, final String variable) {
+    /**
+     * The <code>env</code> block of the main container, or nothing without variables.
+     */
+    private static String containerEnv(final Map<String, String> env) {
+        if (env.isEmpty()) {
+            return "";
+        }
+        StringBuilder out = new StringBuilder("        env:\n");
+        env.forEach((name, value) -> out.append("        - name: ").append(name).append('\n')
+                .append("          value: \"").append(value.replace("\\", "\\\\").replace("\"", "\\\"")).append("\"\n"));
+        return out.toString();
+    }
+
+    private static Object extractProperty(final LayeredProperties contextVars, final String variable) {
         Object o = contextVars.get(variable);
         if (o == null) {
             return contextVars.get(toEnvironmentVariableFriendlyString(variable));
         }
         return o;
     }
-
-    private static TreeMap<Object, Object> merge(final Properties... properties) {
-        return Stream.of(properties)
-                .collect(TreeMap::new, Map::putAll, Map::putAll);
-    }
 }
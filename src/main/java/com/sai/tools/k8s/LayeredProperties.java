@@ -0,0 +1,69 @@
+package com.sai.tools.k8s;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A read-only view of an environment's properties as a chain of layers: each layer only holds its own overrides and
+ * falls back to its parent, down to the shared base properties. Environments (and profiles such as
+ * <code>prod-eu</code> -&gt; <code>prod</code>) therefore share every layer below their own instead of copying it.
+ *
+ * @author Sai.
+ */
+final class LayeredProperties {
+
+    private final Map<Object, Object> overrides;
+    private final LayeredProperties parent;
+
+    private LayeredProperties(final Map<Object, Object> overrides, final LayeredProperties parent) {
+        this.overrides = overrides == null ? Collections.emptyMap() : overrides;
+        this.parent = parent;
+    }
+
+    /**
+     * @param properties the base layer, which must not be modified afterwards.
+     */
+    static LayeredProperties of(final Map<Object, Object> properties) {
+        return new LayeredProperties(properties, null);
+    }
+
+    /**
+     * @param overrides the new top layer, which must not be modified afterwards.
+     */
+    LayeredProperties with(final Map<Object, Object> overrides) {
+        return new LayeredProperties(overrides, this);
+    }
+
+    Object get(final Object key) {
+        for (LayeredProperties layer = this; layer != null; layer = layer.parent) {
+            Object value = layer.overrides.get(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    boolean containsKey(final Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Flattens the layers into a map sorted by key. Meant for the one place that needs every property in order, the
+     * configmap dump; everything else should use {@link #get(Object)}.
+     */
+    TreeMap<Object, Object> toSortedMap() {
+        Deque<Map<Object, Object>> layers = new ArrayDeque<>();
+        for (LayeredProperties layer = this; layer != null; layer = layer.parent) {
+            layers.push(layer.overrides);
+        }
+        TreeMap<Object, Object> sorted = new TreeMap<>();
+        for (Map<Object, Object> layer : layers) {
+            sorted.putAll(layer);
+        }
+        return sorted;
+    }
+}
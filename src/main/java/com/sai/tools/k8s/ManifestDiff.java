@@ -0,0 +1,522 @@
+package com.sai.tools.k8s;
+
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * What changed in the manifests of an environment between two builds, document by document: the documents added, the
+ * documents removed, and for the documents modified, a JSON merge patch (RFC 7386) and the paths of the values that
+ * changed. Documents are paired by apiVersion, kind, namespace and name.
+ * <p>
+ * Only text that changed is parsed: documents, then top level sections, then entries of block mappings such as
+ * <code>data</code>, so a build that only changed the image, or a few properties, parses a few lines of the Deployment,
+ * or of the ConfigMap, whatever its size. The <code>random</code> injected in every ConfigMap is not a change by itself.
+ *
+ * @author Sai.
+ */
+final class ManifestDiff {
+
+    private static final String DOCUMENT_SEPARATOR = "---";
+    private static final String RANDOM_PATH = "data.random";
+
+    enum Type {
+        ADDED, MODIFIED, REMOVED
+    }
+
+    /**
+     * A document that changed.
+     */
+    static final class Change {
+
+        private final Type type;
+        private final Map<?, ?> document;
+        private final String source;
+        private final Map<String, Object> patch;
+        private final Set<String> paths;
+
+        private Change(final Type type, final Map<?, ?> document, final String source, final Map<String, Object> patch, final Set<String> paths) {
+            this.type = type;
+            this.document = document;
+            this.source = source;
+            this.patch = patch;
+            this.paths = paths;
+        }
+
+        Type type() {
+            return type;
+        }
+
+        String kind() {
+            return String.valueOf(document.get("kind"));
+        }
+
+        String name() {
+            return String.valueOf(metadata(document).get("name"));
+        }
+
+        String namespace() {
+            Object namespace = metadata(document).get("namespace");
+            return namespace == null ? null : namespace.toString();
+        }
+
+        /**
+         * The paths of the values that changed, <code>data.KEY</code> or <code>spec.template.spec.containers[0].image</code>
+         * for instance.
+         */
+        Set<String> paths() {
+            return paths;
+        }
+
+        private boolean isImageOnly() {
+            return !paths.isEmpty() && paths.stream().allMatch(path -> path.endsWith(".image"));
+        }
+    }
+
+    private final List<Change> changes;
+
+    private ManifestDiff(final List<Change> changes) {
+        this.changes = Collections.unmodifiableList(changes);
+    }
+
+    /**
+     * No changes at all.
+     */
+    static ManifestDiff none() {
+        return new ManifestDiff(new ArrayList<>());
+    }
+
+    /**
+     * @param previous the manifests of the previous build, null when there are none.
+     */
+    static ManifestDiff between(final String previous, final String current) {
+        List<String> previousDocuments = previous == null ? Collections.<String>emptyList() : split(previous);
+        List<String> currentDocuments = split(current);
+        // Fast path: identical documents are unchanged, whatever they hold.
+        Set<String> unchanged = new HashSet<>(previousDocuments);
+        unchanged.retainAll(currentDocuments);
+        Map<String, Document> removed = new LinkedHashMap<>();
+        for (String text : previousDocuments) {
+            if (!unchanged.contains(text)) {
+                Document document = new Document(text);
+                removed.put(document.identity(), document);
+            }
+        }
+        List<Change> changes = new ArrayList<>();
+        for (String text : currentDocuments) {
+            if (unchanged.contains(text)) {
+                continue;
+            }
+            Document document = new Document(text);
+            Document before = removed.remove(document.identity());
+            if (before == null) {
+                changes.add(new Change(Type.ADDED, document.header, text, null, Collections.<String>emptySet()));
+                continue;
+            }
+            Set<String> paths = new TreeSet<>();
+            Map<String, Object> patch = mergePatch(before, document, paths);
+            if ("ConfigMap".equals(document.header.get("kind"))) {
+                paths.remove(RANDOM_PATH);
+            }
+            if (!paths.isEmpty()) {
+                changes.add(new Change(Type.MODIFIED, document.header, text, patch, paths));
+            }
+        }
+        for (Document document : removed.values()) {
+            changes.add(new Change(Type.REMOVED, document.header, null, null, Collections.<String>emptySet()));
+        }
+        return new ManifestDiff(changes);
+    }
+
+    List<Change> changes() {
+        return changes;
+    }
+
+    boolean isChanged() {
+        return !changes.isEmpty();
+    }
+
+    /**
+     * Whether the pods have to be restarted to pick the changes up: ConfigMaps changed in place, which neither the
+     * environment variables nor Spring follow, and the pod template did not, so no rollout will happen on its own.
+     */
+    boolean needsRestart() {
+        boolean configMapsModified = false;
+        for (Change change : changes) {
+            if ("Deployment".equals(change.kind()) && change.type != Type.REMOVED
+                    && (change.type == Type.ADDED || change.paths.stream().anyMatch(path -> path.startsWith("spec.template")))) {
+                return false;
+            }
+            configMapsModified |= "ConfigMap".equals(change.kind()) && change.type == Type.MODIFIED;
+        }
+        return configMapsModified;
+    }
+
+    /**
+     * One line for the build log, such as <code>Deployment my-service: image; ConfigMap my-service-config-1.0: 2 value(s)</code>.
+     */
+    String summary() {
+        if (changes.isEmpty()) {
+            return "no changes";
+        }
+        List<String> parts = new ArrayList<>();
+        for (Change change : changes) {
+            String what;
+            if (change.type != Type.MODIFIED) {
+                what = change.type.name().toLowerCase(Locale.ROOT);
+            } else if (change.isImageOnly()) {
+                what = "image";
+            } else {
+                what = change.paths.size() + " value(s)";
+            }
+            parts.add(change.kind() + " " + change.name() + ": " + what);
+        }
+        return String.join("; ", parts);
+    }
+
+    /**
+     * The files applying the changes, in the order of the documents: <code>NN_kind_namespace_name.yml</code> with the
+     * whole document for the documents added, <code>NN_kind_namespace_name.json</code> with the merge patch for the
+     * documents modified. The namespace is <code>-</code> for the documents without one.
+     */
+    Map<String, String> patchFiles() {
+        Map<String, String> files = new LinkedHashMap<>();
+        int index = 0;
+        for (Change change : changes) {
+            if (change.type == Type.REMOVED) {
+                continue;
+            }
+            String name = String.format(Locale.ROOT, "%02d_%s_%s_%s", index++, change.kind().toLowerCase(Locale.ROOT),
+                    change.namespace() == null ? "-" : change.namespace(), change.name());
+            if (change.type == Type.ADDED) {
+                files.put(name + ".yml", change.source);
+            } else {
+                StringBuilder json = new StringBuilder();
+                appendJson(json, change.patch);
+                files.put(name + ".json", json.append('\n').toString());
+            }
+        }
+        return files;
+    }
+
+    /**
+     * The change summary of an environment, as read by <code>deploy_changes.sh</code>.
+     */
+    String toJson(final String environment) {
+        StringBuilder out = new StringBuilder("{\n");
+        out.append("  \"environment\": ").append(GenerationMetrics.quote(environment)).append(",\n");
+        out.append("  \"changed\": ").append(isChanged()).append(",\n");
+        out.append("  \"restart\": ").append(needsRestart()).append(",\n");
+        out.append("  \"documents\": [");
+        for (int i = 0; i < changes.size(); i++) {
+            Change change = changes.get(i);
+            out.append(i == 0 ? "\n" : ",\n")
+                    .append("    {\"change\": ").append(GenerationMetrics.quote(change.type.name().toLowerCase(Locale.ROOT)))
+                    .append(", \"kind\": ").append(GenerationMetrics.quote(change.kind()))
+                    .append(", \"namespace\": ").append(GenerationMetrics.quote(change.namespace()))
+                    .append(", \"name\": ").append(GenerationMetrics.quote(change.name()))
+                    .append(", \"paths\": ");
+            appendJson(out, new ArrayList<>(change.paths));
+            out.append('}');
+        }
+        return out.append(changes.isEmpty() ? "]\n}\n" : "\n  ]\n}\n").toString();
+    }
+
+    /**
+     * The merge patch turning one document into the other, section by section: sections of the same text are skipped,
+     * and of a block mapping such as <code>data</code>, only the entries whose text differs are parsed.
+     */
+    private static Map<String, Object> mergePatch(final Document before, final Document after, final Set<String> paths) {
+        Map<String, Object> patch = new LinkedHashMap<>();
+        Set<String> keys = new TreeSet<>(before.keys());
+        keys.addAll(after.keys());
+        for (String key : keys) {
+            if (before.sections != null && after.sections != null) {
+                String previous = before.sections.get(key);
+                String value = after.sections.get(key);
+                if (Objects.equals(previous, value)) {
+                    continue;
+                }
+                Map<String, String> previousEntries = previous == null ? null : entries(previous);
+                Map<String, String> entries = value == null ? null : entries(value);
+                if (previousEntries != null && entries != null) {
+                    Map<String, Object> nested = mergePatch(changedEntries(key, previousEntries, entries), changedEntries(key, entries, previousEntries), key, paths);
+                    if (!nested.isEmpty()) {
+                        patch.put(key, nested);
+                    }
+                    continue;
+                }
+            }
+            Map<Object, Object> previous = new HashMap<>();
+            Map<Object, Object> value = new HashMap<>();
+            if (before.keys().contains(key)) {
+                previous.put(key, before.value(key));
+            }
+            if (after.keys().contains(key)) {
+                value.put(key, after.value(key));
+            }
+            patch.putAll(mergePatch(previous, value, "", paths));
+        }
+        return patch;
+    }
+
+    /**
+     * The entries of a block mapping whose text is not the same in the other one, parsed.
+     */
+    private static Map<?, ?> changedEntries(final String key, final Map<String, String> entries, final Map<String, String> others) {
+        StringBuilder yaml = new StringBuilder(key).append(":\n");
+        entries.forEach((name, text) -> {
+            if (!text.equals(others.get(name))) {
+                yaml.append(text);
+            }
+        });
+        Object parsed = parse(yaml.toString()).get(key);
+        return parsed instanceof Map ? (Map<?, ?>) parsed : Collections.emptyMap();
+    }
+
+    /**
+     * The RFC 7386 merge patch turning one object into the other: removed keys set to null, changed values replaced
+     * (lists as a whole), nested objects patched recursively.
+     */
+    private static Map<String, Object> mergePatch(final Map<?, ?> before, final Map<?, ?> after, final String path, final Set<String> paths) {
+        Map<String, Object> patch = new LinkedHashMap<>();
+        for (Map.Entry<?, ?> entry : before.entrySet()) {
+            if (!after.containsKey(entry.getKey())) {
+                patch.put(String.valueOf(entry.getKey()), null);
+                paths.add(child(path, entry.getKey()));
+            }
+        }
+        for (Map.Entry<?, ?> entry : after.entrySet()) {
+            Object previous = before.get(entry.getKey());
+            Object value = entry.getValue();
+            String valuePath = child(path, entry.getKey());
+            if (!before.containsKey(entry.getKey())) {
+                patch.put(String.valueOf(entry.getKey()), value);
+                paths.add(valuePath);
+            } else if (previous instanceof Map && value instanceof Map) {
+                Map<String, Object> nested = mergePatch((Map<?, ?>) previous, (Map<?, ?>) value, valuePath, paths);
+                if (!nested.isEmpty()) {
+                    patch.put(String.valueOf(entry.getKey()), nested);
+                }
+            } else if (!Objects.equals(previous, value)) {
+                patch.put(String.valueOf(entry.getKey()), value);
+                changedPaths(previous, value, valuePath, paths);
+            }
+        }
+        return patch;
+    }
+
+    /**
+     * The paths of what differs between two values, descending into lists of the same length and into properties files.
+     */
+    private static void changedPaths(final Object before, final Object after, final String path, final Set<String> paths) {
+        if (before instanceof List && after instanceof List && ((List<?>) before).size() == ((List<?>) after).size()) {
+            for (int i = 0; i < ((List<?>) before).size(); i++) {
+                Object previous = ((List<?>) before).get(i);
+                Object value = ((List<?>) after).get(i);
+                if (previous instanceof Map && value instanceof Map) {
+                    mergePatch((Map<?, ?>) previous, (Map<?, ?>) value, path + "[" + i + "]", paths);
+                } else if (!Objects.equals(previous, value)) {
+                    changedPaths(previous, value, path + "[" + i + "]", paths);
+                }
+            }
+        } else if (path.endsWith("." + ConfigMapLayout.PROPERTIES_FILE) && before instanceof String && after instanceof String) {
+            Properties previous = properties((String) before);
+            Properties current = properties((String) after);
+            Set<String> keys = new TreeSet<>(previous.stringPropertyNames());
+            keys.addAll(current.stringPropertyNames());
+            for (String key : keys) {
+                if (!Objects.equals(previous.getProperty(key), current.getProperty(key)) && !"random".equals(key)) {
+                    paths.add(path + "[" + key + "]");
+                }
+            }
+        } else {
+            paths.add(path);
+        }
+    }
+
+    /**
+     * The text of each entry of a block mapping section, keyed by the text of its key, or null for any other section.
+     */
+    private static Map<String, String> entries(final String section) {
+        String[] lines = section.split("\n");
+        if (!lines[0].trim().endsWith(":") || lines[0].trim().indexOf(':') != lines[0].trim().length() - 1) {
+            return null;
+        }
+        Map<String, String> entries = new LinkedHashMap<>();
+        String name = null;
+        StringBuilder entry = new StringBuilder();
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            boolean continuation = line.trim().isEmpty() || line.startsWith("   ") || line.startsWith("  #");
+            if (!continuation) {
+                int colon = line.indexOf(':');
+                if (!line.startsWith("  ") || line.charAt(2) == '-' || colon < 0) {
+                    return null;
+                }
+                if (name != null && entries.put(name, entry.toString()) != null) {
+                    return null;
+                }
+                name = line.substring(2, colon);
+                entry.setLength(0);
+            } else if (name == null) {
+                return null;
+            }
+            entry.append(line).append('\n');
+        }
+        if (name != null && entries.put(name, entry.toString()) != null) {
+            return null;
+        }
+        return entries;
+    }
+
+    private static List<String> split(final String manifests) {
+        List<String> documents = new ArrayList<>();
+        StringBuilder document = new StringBuilder();
+        for (String line : manifests.split("\n", -1)) {
+            if (DOCUMENT_SEPARATOR.equals(line)) {
+                documents.add(document.toString());
+                document.setLength(0);
+            } else {
+                document.append(line).append('\n');
+            }
+        }
+        documents.add(document.toString());
+        documents.removeIf(text -> text.trim().isEmpty());
+        return documents;
+    }
+
+    private static Map<?, ?> parse(final String document) {
+        Object parsed = new Yaml(new SafeConstructor()).load(document);
+        return parsed instanceof Map ? (Map<?, ?>) parsed : Collections.emptyMap();
+    }
+
+    /**
+     * A document, as the text of each of its top level entries (sections), parsed on demand. Documents that do not
+     * split into sections, such as flow style ones, are parsed whole.
+     */
+    private static final class Document {
+
+        private final Map<String, String> sections;
+        private final Map<?, ?> parsed;
+        private final Map<String, Object> header = new HashMap<>();
+
+        private Document(final String text) {
+            this.sections = sections(text);
+            this.parsed = sections == null ? parse(text) : null;
+            for (String key : new String[]{"apiVersion", "kind", "metadata"}) {
+                header.put(key, value(key));
+            }
+        }
+
+        private Set<String> keys() {
+            if (sections != null) {
+                return sections.keySet();
+            }
+            Set<String> keys = new HashSet<>();
+            parsed.keySet().forEach(key -> keys.add(String.valueOf(key)));
+            return keys;
+        }
+
+        private Object value(final String key) {
+            if (sections == null) {
+                return parsed.get(key);
+            }
+            String section = sections.get(key);
+            return section == null ? null : parse(section).get(key);
+        }
+
+        private String identity() {
+            Map<?, ?> metadata = metadata(header);
+            return header.get("apiVersion") + "/" + header.get("kind") + "/" + metadata.get("namespace") + "/" + metadata.get("name");
+        }
+
+        private static Map<String, String> sections(final String text) {
+            Map<String, String> sections = new LinkedHashMap<>();
+            String name = null;
+            StringBuilder section = new StringBuilder();
+            for (String line : text.split("\n")) {
+                boolean continuation = line.trim().isEmpty() || line.startsWith(" ") || line.startsWith("#");
+                if (!continuation) {
+                    int colon = line.indexOf(':');
+                    if (colon <= 0 || line.startsWith("-") || line.startsWith("\"") || line.startsWith("'")
+                            || line.startsWith("{") || line.startsWith("%")) {
+                        return null;
+                    }
+                    if (name != null && sections.put(name, section.toString()) != null) {
+                        return null;
+                    }
+                    name = line.substring(0, colon);
+                    section.setLength(0);
+                } else if (name == null) {
+                    if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                        return null;
+                    }
+                    continue;
+                }
+                section.append(line).append('\n');
+            }
+            if (name != null && sections.put(name, section.toString()) != null) {
+                return null;
+            }
+            return sections;
+        }
+    }
+
+    private static Map<?, ?> metadata(final Map<?, ?> document) {
+        Object metadata = document.get("metadata");
+        return metadata instanceof Map ? (Map<?, ?>) metadata : new HashMap<>();
+    }
+
+    private static Properties properties(final String contents) {
+        Properties properties = new Properties();
+        try {
+            properties.load(new StringReader(contents));
+        } catch (IOException | IllegalArgumentException ex) {
+            // Compared as far as it could be read.
+        }
+        return properties;
+    }
+
+    private static String child(final String path, final Object key) {
+        return path.isEmpty() ? String.valueOf(key) : path + "." + key;
+    }
+
+    private static void appendJson(final StringBuilder out, final Object value) {
+        if (value instanceof Map) {
+            out.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                out.append(first ? "" : ", ").append(GenerationMetrics.quote(String.valueOf(entry.getKey()))).append(": ");
+                appendJson(out, entry.getValue());
+                first = false;
+            }
+            out.append('}');
+        } else if (value instanceof List) {
+            out.append('[');
+            for (int i = 0; i < ((List<?>) value).size(); i++) {
+                out.append(i == 0 ? "" : ", ");
+                appendJson(out, ((List<?>) value).get(i));
+            }
+            out.append(']');
+        } else if (value == null || value instanceof Number || value instanceof Boolean) {
+            out.append(value);
+        } else {
+            out.append(GenerationMetrics.quote(value.toString()));
+        }
+    }
+}
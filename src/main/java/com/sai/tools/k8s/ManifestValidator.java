@@ -0,0 +1,443 @@
+package com.sai.tools.k8s;
+
+import org.apache.commons.io.IOUtils;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+import org.yaml.snakeyaml.error.YAMLException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Checks rendered manifests before they reach a cluster, in process and without the network: every document against
+ * the bundled subset of the Kubernetes OpenAPI schemas ({@value #SCHEMAS}), compiled once per JVM, and every value for
+ * <code>${...}</code> placeholders left unresolved.
+ * <p>
+ * Errors are what the API server would reject. Unknown fields, documents of a kind without a schema, and references
+ * between ConfigMap properties that name no property of the ConfigMaps (Spring may still resolve those at runtime,
+ * from the environment for instance) are warnings.
+ *
+ * @author Sai.
+ */
+final class ManifestValidator {
+
+    static final String SCHEMAS = "k8s-schemas.yml";
+
+    private static final String PLACEHOLDER_START = "${";
+    private static final String REF_PREFIX = "#/definitions/";
+
+    private ManifestValidator() {
+    }
+
+    /**
+     * The problems found in the manifests of an environment.
+     */
+    static final class Findings {
+
+        private final List<String> errors = new ArrayList<>();
+        private final List<String> warnings = new ArrayList<>();
+
+        List<String> errors() {
+            return Collections.unmodifiableList(errors);
+        }
+
+        List<String> warnings() {
+            return Collections.unmodifiableList(warnings);
+        }
+    }
+
+    /**
+     * @param fileName names the manifests in the messages.
+     */
+    static void validate(final String fileName, final String manifests, final Findings findings) {
+        List<Object> documents = new ArrayList<>();
+        try {
+            for (Object document : new Yaml(new SafeConstructor()).loadAll(manifests)) {
+                if (document != null) {
+                    documents.add(document);
+                }
+            }
+        } catch (YAMLException ex) {
+            findings.errors.add(fileName + ": not valid YAML: " + ex.getMessage());
+            return;
+        }
+        Set<String> configMapKeys = configMapKeys(documents);
+        for (Object document : documents) {
+            if (!(document instanceof Map)) {
+                findings.errors.add(fileName + ": a document is not a Kubernetes object");
+                continue;
+            }
+            Map<?, ?> object = (Map<?, ?>) document;
+            Object metadata = object.get("metadata");
+            String prefix = fileName + ", " + object.get("kind") + " "
+                    + (metadata instanceof Map ? ((Map<?, ?>) metadata).get("name") : "without metadata") + ": ";
+            Schema schema = Schemas.forKind(object.get("apiVersion") + "/" + object.get("kind"));
+            if (schema == null) {
+                findings.warnings.add(prefix + "no schema for apiVersion " + object.get("apiVersion") + ", not checked");
+            } else {
+                schema.validate(object, "", prefix, findings);
+            }
+            if ("ConfigMap".equals(object.get("kind"))) {
+                for (Map.Entry<?, ?> field : object.entrySet()) {
+                    if ("data".equals(field.getKey()) && field.getValue() instanceof Map) {
+                        checkReferences((Map<?, ?>) field.getValue(), configMapKeys, prefix, findings);
+                    } else if (!"binaryData".equals(field.getKey())) {
+                        checkPlaceholders(field.getValue(), String.valueOf(field.getKey()), prefix, findings);
+                    }
+                }
+            } else {
+                checkPlaceholders(object, "", prefix, findings);
+            }
+        }
+    }
+
+    /**
+     * Every property the ConfigMaps of the manifests hold, whether as an entry or inside a properties file.
+     */
+    private static Set<String> configMapKeys(final List<Object> documents) {
+        Set<String> keys = new HashSet<>();
+        for (Object document : documents) {
+            if (document instanceof Map && "ConfigMap".equals(((Map<?, ?>) document).get("kind"))
+                    && ((Map<?, ?>) document).get("data") instanceof Map) {
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) ((Map<?, ?>) document).get("data")).entrySet()) {
+                    keys.add(String.valueOf(entry.getKey()));
+                    if (isPropertiesFile(entry)) {
+                        keys.addAll(propertiesFile(entry.getValue()).stringPropertyNames());
+                    }
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static void checkReferences(final Map<?, ?> data, final Set<String> keys, final String prefix, final Findings findings) {
+        for (Map.Entry<?, ?> entry : data.entrySet()) {
+            String path = "data." + entry.getKey();
+            if (isPropertiesFile(entry)) {
+                Properties file = propertiesFile(entry.getValue());
+                for (String key : new TreeSet<>(file.stringPropertyNames())) {
+                    checkReference(file.getProperty(key), path + "[" + key + "]", keys, prefix, findings);
+                }
+            } else if (entry.getValue() != null) {
+                checkReference(entry.getValue().toString(), path, keys, prefix, findings);
+            }
+        }
+    }
+
+    private static void checkReference(final String value, final String path, final Set<String> keys, final String prefix, final Findings findings) {
+        for (String name : placeholders(value)) {
+            // ${name:default} always resolves.
+            if (!name.contains(":") && !keys.contains(name) && !keys.contains(PropertiesNormalizer.toEnvironmentVariableFriendlyString(name))) {
+                findings.warnings.add(prefix + path + ": ${" + name + "} names no property of the ConfigMaps");
+            }
+        }
+    }
+
+    private static void checkPlaceholders(final Object value, final String path, final String prefix, final Findings findings) {
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                checkPlaceholders(entry.getValue(), child(path, entry.getKey()), prefix, findings);
+            }
+        } else if (value instanceof List) {
+            List<?> items = (List<?>) value;
+            for (int i = 0; i < items.size(); i++) {
+                checkPlaceholders(items.get(i), path + "[" + i + "]", prefix, findings);
+            }
+        } else if (value instanceof String) {
+            for (String name : placeholders((String) value)) {
+                findings.errors.add(prefix + path + ": unresolved placeholder ${" + name + "}");
+            }
+        }
+    }
+
+    /**
+     * The names of the <code>${...}</code> placeholders of a value.
+     */
+    private static Set<String> placeholders(final String value) {
+        if (!value.contains(PLACEHOLDER_START)) {
+            return Collections.emptySet();
+        }
+        Set<String> names = new LinkedHashSet<>();
+        for (String name : PropertiesNormalizer.extractVariableNames(value)) {
+            if (value.contains(PLACEHOLDER_START + name + "}")) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    private static boolean isPropertiesFile(final Map.Entry<?, ?> entry) {
+        return ConfigMapLayout.PROPERTIES_FILE.equals(entry.getKey()) && entry.getValue() instanceof String;
+    }
+
+    private static Properties propertiesFile(final Object contents) {
+        Properties properties = new Properties();
+        try {
+            properties.load(new StringReader(contents.toString()));
+        } catch (IOException | IllegalArgumentException ex) {
+            // Left to the schema and the application; the keys that could be read are kept.
+        }
+        return properties;
+    }
+
+    private static String child(final String path, final Object key) {
+        return path.isEmpty() ? String.valueOf(key) : path + "." + key;
+    }
+
+    /**
+     * The schemas compiled from {@value #SCHEMAS}, the first time a manifest is validated.
+     */
+    private static final class Schemas {
+
+        private static final Map<String, Schema> DEFINITIONS = new HashMap<>();
+        private static final Map<String, Schema> KINDS = new HashMap<>();
+
+        static {
+            Map<?, ?> source;
+            try (InputStream in = ManifestValidator.class.getClassLoader().getResourceAsStream(SCHEMAS)) {
+                if (in == null) {
+                    throw new IllegalStateException("Schemas not found on the classpath: " + SCHEMAS);
+                }
+                source = (Map<?, ?>) new Yaml(new SafeConstructor()).load(IOUtils.toString(in, StandardCharsets.UTF_8));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            List<String> references = new ArrayList<>();
+            ((Map<?, ?>) source.get("definitions")).forEach((name, definition) ->
+                    DEFINITIONS.put(name.toString(), Schema.compile((Map<?, ?>) definition, references)));
+            ((Map<?, ?>) source.get("kinds")).forEach((kind, definition) -> {
+                references.add(definition.toString());
+                KINDS.put(kind.toString(), DEFINITIONS.get(definition.toString()));
+            });
+            for (String reference : references) {
+                if (!DEFINITIONS.containsKey(reference)) {
+                    throw new IllegalStateException(SCHEMAS + " refers to the undefined " + reference);
+                }
+            }
+        }
+
+        static Schema forKind(final String kind) {
+            return KINDS.get(kind);
+        }
+
+        static Schema definition(final String name) {
+            return DEFINITIONS.get(name);
+        }
+    }
+
+    private static final class Schema {
+
+        private String reference;
+        private String type;
+        private boolean intOrString;
+        private boolean preserveUnknownFields;
+        private final Map<String, Schema> properties = new LinkedHashMap<>();
+        private final List<String> required = new ArrayList<>();
+        private Schema additionalProperties;
+        private Schema propertyNames;
+        private Schema items;
+        private Set<String> allowedValues;
+        private Long minimum;
+        private Long maximum;
+        private Integer maxLength;
+        private Pattern pattern;
+
+        static Schema compile(final Map<?, ?> source, final List<String> references) {
+            Schema schema = new Schema();
+            if (source.containsKey("$ref")) {
+                schema.reference = source.get("$ref").toString().substring(REF_PREFIX.length());
+                references.add(schema.reference);
+                return schema;
+            }
+            schema.type = (String) source.get("type");
+            schema.intOrString = Boolean.TRUE.equals(source.get("x-kubernetes-int-or-string"));
+            schema.preserveUnknownFields = Boolean.TRUE.equals(source.get("x-kubernetes-preserve-unknown-fields"));
+            if (source.get("properties") instanceof Map) {
+                ((Map<?, ?>) source.get("properties")).forEach((name, property) ->
+                        schema.properties.put(name.toString(), compile((Map<?, ?>) property, references)));
+            }
+            if (source.get("required") instanceof List) {
+                for (Object name : (List<?>) source.get("required")) {
+                    schema.required.add(name.toString());
+                }
+            }
+            if (source.get("additionalProperties") instanceof Map) {
+                schema.additionalProperties = compile((Map<?, ?>) source.get("additionalProperties"), references);
+            }
+            if (source.get("propertyNames") instanceof Map) {
+                schema.propertyNames = compile((Map<?, ?>) source.get("propertyNames"), references);
+            }
+            if (source.get("items") instanceof Map) {
+                schema.items = compile((Map<?, ?>) source.get("items"), references);
+            }
+            if (source.get("enum") instanceof List) {
+                schema.allowedValues = new LinkedHashSet<>();
+                for (Object value : (List<?>) source.get("enum")) {
+                    schema.allowedValues.add(String.valueOf(value));
+                }
+            }
+            if (source.get("minimum") instanceof Number) {
+                schema.minimum = ((Number) source.get("minimum")).longValue();
+            }
+            if (source.get("maximum") instanceof Number) {
+                schema.maximum = ((Number) source.get("maximum")).longValue();
+            }
+            if (source.get("maxLength") instanceof Number) {
+                schema.maxLength = ((Number) source.get("maxLength")).intValue();
+            }
+            if (source.get("pattern") != null) {
+                schema.pattern = Pattern.compile(source.get("pattern").toString());
+            }
+            return schema;
+        }
+
+        void validate(final Object value, final String path, final String prefix, final Findings findings) {
+            if (reference != null) {
+                Schemas.definition(reference).validate(value, path, prefix, findings);
+                return;
+            }
+            String where = prefix + (path.isEmpty() ? "" : path + ": ");
+            if (value == null) {
+                findings.errors.add(where + "has no value");
+                return;
+            }
+            if (intOrString && isInteger(value)) {
+                validateInteger(((Number) value).longValue(), where, findings);
+                return;
+            }
+            switch (type == null ? "" : type) {
+                case "object":
+                    if (!(value instanceof Map)) {
+                        findings.errors.add(where + "expected an object, got " + describe(value));
+                        return;
+                    }
+                    validateObject((Map<?, ?>) value, path, prefix, findings);
+                    break;
+                case "array":
+                    if (!(value instanceof List)) {
+                        findings.errors.add(where + "expected an array, got " + describe(value));
+                        return;
+                    }
+                    List<?> list = (List<?>) value;
+                    for (int i = 0; i < list.size() && items != null; i++) {
+                        items.validate(list.get(i), path + "[" + i + "]", prefix, findings);
+                    }
+                    break;
+                case "string":
+                    if (!(value instanceof String) && !(value instanceof Date)) {
+                        findings.errors.add(where + "expected a string" + (intOrString ? " or an integer" : "") + ", got " + describe(value)
+                                + (value instanceof Number || value instanceof Boolean ? " (quote it)" : ""));
+                        return;
+                    }
+                    validateString(value instanceof String ? (String) value : value.toString(), where, findings);
+                    break;
+                case "integer":
+                    if (!isInteger(value)) {
+                        findings.errors.add(where + "expected an integer, got " + describe(value));
+                        return;
+                    }
+                    validateInteger(((Number) value).longValue(), where, findings);
+                    break;
+                case "number":
+                    if (!(value instanceof Number)) {
+                        findings.errors.add(where + "expected a number, got " + describe(value));
+                    }
+                    break;
+                case "boolean":
+                    if (!(value instanceof Boolean)) {
+                        findings.errors.add(where + "expected a boolean, got " + describe(value));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void validateObject(final Map<?, ?> object, final String path, final String prefix, final Findings findings) {
+            for (String name : required) {
+                if (!object.containsKey(name)) {
+                    findings.errors.add(prefix + child(path, name) + ": is required");
+                }
+            }
+            for (Map.Entry<?, ?> field : object.entrySet()) {
+                String fieldPath = child(path, field.getKey());
+                if (propertyNames != null) {
+                    propertyNames.validate(String.valueOf(field.getKey()), fieldPath + " (key)", prefix, findings);
+                }
+                if (field.getValue() == null && !required.contains(String.valueOf(field.getKey()))) {
+                    // The API server takes a null optional field, data: for instance, as unset.
+                    continue;
+                }
+                Schema property = properties.get(String.valueOf(field.getKey()));
+                if (property == null) {
+                    property = additionalProperties;
+                }
+                if (property != null) {
+                    property.validate(field.getValue(), fieldPath, prefix, findings);
+                } else if (!preserveUnknownFields) {
+                    findings.warnings.add(prefix + fieldPath + ": unknown field");
+                }
+            }
+        }
+
+        private void validateString(final String value, final String where, final Findings findings) {
+            if (maxLength != null && value.length() > maxLength) {
+                findings.errors.add(where + "longer than " + maxLength + " characters: \"" + value + "\"");
+            }
+            if (pattern != null && !pattern.matcher(value).matches()) {
+                findings.errors.add(where + "\"" + value + "\" does not match " + pattern.pattern());
+            }
+            checkAllowed(value, where, findings);
+        }
+
+        private void validateInteger(final long value, final String where, final Findings findings) {
+            if (minimum != null && value < minimum) {
+                findings.errors.add(where + value + " is less than " + minimum);
+            }
+            if (maximum != null && value > maximum) {
+                findings.errors.add(where + value + " is more than " + maximum);
+            }
+            checkAllowed(String.valueOf(value), where, findings);
+        }
+
+        private void checkAllowed(final String value, final String where, final Findings findings) {
+            if (allowedValues != null && !allowedValues.contains(value)) {
+                findings.errors.add(where + "\"" + value + "\" is not one of " + allowedValues);
+            }
+        }
+
+        private static boolean isInteger(final Object value) {
+            return value instanceof Integer || value instanceof Long || value instanceof BigInteger;
+        }
+
+        private static String describe(final Object value) {
+            if (value instanceof String) {
+                return "\"" + value + "\"";
+            }
+            if (value instanceof Map) {
+                return "an object";
+            }
+            if (value instanceof List) {
+                return "an array";
+            }
+            return String.valueOf(value);
+        }
+    }
+}
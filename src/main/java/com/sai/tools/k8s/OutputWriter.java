@@ -0,0 +1,81 @@
+package com.sai.tools.k8s;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes generated files as UTF-8, leaving a file alone when it already holds exactly the rendered bytes.
+ * Changed files are written to a temporary file next to the target and moved over it atomically, so an interrupted
+ * build never leaves a half written descriptor behind. Safe to share between the per-environment tasks.
+ *
+ * @author Sai.
+ */
+final class OutputWriter {
+
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    /**
+     * @return true if the file was (re)written, false if it was already up to date.
+     */
+    boolean write(final Path file, final String contents) {
+        byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+        try {
+            if (hasContents(file, bytes)) {
+                skipped.incrementAndGet();
+                return false;
+            }
+            Path dir = file.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            // Not Files.createTempFile, which would leave the file readable by its owner only.
+            Path temp = dir.resolve("." + file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+            try {
+                Files.write(temp, bytes);
+                move(temp, file);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            written.incrementAndGet();
+            bytesWritten.addAndGet(bytes.length);
+            return true;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    int getWritten() {
+        return written.get();
+    }
+
+    int getSkipped() {
+        return skipped.get();
+    }
+
+    long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    private static boolean hasContents(final Path file, final byte[] bytes) throws IOException {
+        if (!Files.isRegularFile(file) || Files.size(file) != bytes.length) {
+            return false;
+        }
+        return ContentHash.of(Files.readAllBytes(file)).equals(ContentHash.of(bytes));
+    }
+
+    private static void move(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
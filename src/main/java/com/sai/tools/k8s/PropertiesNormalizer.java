@@ -1,10 +1,12 @@
 package com.sai.tools.k8s;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Properties;
+import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * The Spring Boot properties (usually contains '.' as a delimiter). However, the '.' delimiter
@@ -19,36 +21,42 @@ import java.util.regex.Pattern;
  */
 public final class PropertiesNormalizer {
 
-    private static final Pattern REGEX_EXTRACT_VARIABLE_NAMES_FROM_TEMPLATE = Pattern.compile("\\{(.*?)\\}");
+    /**
+     * Key translations are shared by every environment (and every module of a build); beyond this many distinct keys
+     * new translations are simply no longer remembered.
+     */
+    private static final int MAX_CACHED_KEYS = 65536;
+    private static final ConcurrentMap<String, String> NORMALISED_KEYS = new ConcurrentHashMap<>();
 
     private PropertiesNormalizer() {
     }
 
     static String toEnvironmentVariableFriendlyString(final String key) {
-        return key.replace(".", "_").replace("-", "");
+        String normalised = NORMALISED_KEYS.get(key);
+        if (normalised == null) {
+            normalised = translate(key);
+            if (NORMALISED_KEYS.size() < MAX_CACHED_KEYS) {
+                NORMALISED_KEYS.putIfAbsent(key, normalised);
+            }
+        }
+        return normalised;
     }
 
-    static Properties toEnvironmentVariableFriendlyProperties(final Properties properties) {
-        Properties normalised = new Properties();
+    /**
+     * Normalises every key, and every <code>{variable}</code> reference inside the values, in a single scan per entry.
+     *
+     * @return an unmodifiable map of the normalised properties.
+     */
+    static Map<Object, Object> toEnvironmentVariableFriendlyProperties(final Map<Object, Object> properties) {
+        Map<Object, Object> normalised = new HashMap<>((int) (properties.size() / 0.75f) + 1);
         properties.forEach((key, value) -> {
             if (!ignoreProp(key)) {
-                String normalisedKey = toEnvironmentVariableFriendlyString(key.toString());
-                Set<String> actualVariables = extractVariableNames(value.toString());
-                if (!actualVariables.isEmpty()) {
-                    String normalisedValue = value.toString();
-                    for (String actualVariable : actualVariables) {
-                        String normalizedValue = toEnvironmentVariableFriendlyString(actualVariable);
-                        normalisedValue = normalisedValue.replace(actualVariable, normalizedValue);
-                    }
-                    normalised.put(normalisedKey, normalisedValue);
-                } else {
-                    normalised.put(normalisedKey, value);
-                }
+                normalised.put(toEnvironmentVariableFriendlyString(key.toString()), normaliseVariableReferences(value.toString()));
             } else {
                 normalised.put(key, value);
             }
         });
-        return normalised;
+        return Collections.unmodifiableMap(normalised);
     }
 
     private static boolean ignoreProp(final Object key) {
@@ -56,11 +64,81 @@ public final class PropertiesNormalizer {
     }
 
     public static Set<String> extractVariableNames(final String value) {
-        Matcher matchPattern = REGEX_EXTRACT_VARIABLE_NAMES_FROM_TEMPLATE.matcher(value);
         Set<String> vars = new HashSet<>();
-        while (matchPattern.find()) {
-            vars.add(matchPattern.group(1));
+        int from = 0;
+        int start;
+        while ((start = value.indexOf('{', from)) >= 0) {
+            int end = endOfVariable(value, start);
+            if (end < 0) {
+                from = start + 1;
+                continue;
+            }
+            vars.add(value.substring(start + 1, end));
+            from = end + 1;
         }
         return vars;
     }
+
+    /**
+     * The position of the '}' closing the variable opened at <code>start</code>, or -1 when it is not closed on the
+     * same line.
+     */
+    private static int endOfVariable(final String value, final int start) {
+        for (int i = start + 1; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '}') {
+                return i;
+            }
+            if (c == '\n' || c == '\r') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static String normaliseVariableReferences(final String value) {
+        int start = value.indexOf('{');
+        if (start < 0) {
+            return value;
+        }
+        StringBuilder out = null;
+        int from = 0;
+        while (start >= 0) {
+            int end = endOfVariable(value, start);
+            if (end < 0) {
+                start = value.indexOf('{', start + 1);
+                continue;
+            }
+            String variable = value.substring(start + 1, end);
+            String normalised = toEnvironmentVariableFriendlyString(variable);
+            if (!normalised.equals(variable)) {
+                if (out == null) {
+                    out = new StringBuilder(value.length());
+                }
+                out.append(value, from, start + 1).append(normalised);
+                from = end;
+            }
+            start = value.indexOf('{', end + 1);
+        }
+        return out == null ? value : out.append(value, from, value.length()).toString();
+    }
+
+    // List indices (a.b[0].c) follow Spring's relaxed binding for environment variables: a_b_0_c.
+    private static String translate(final String key) {
+        StringBuilder out = null;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c == '.' || c == '-' || c == '[' || c == ']') {
+                if (out == null) {
+                    out = new StringBuilder(key.length()).append(key, 0, i);
+                }
+                if (c == '.' || c == '[') {
+                    out.append('_');
+                }
+            } else if (out != null) {
+                out.append(c);
+            }
+        }
+        return out == null ? key : out.toString();
+    }
 }
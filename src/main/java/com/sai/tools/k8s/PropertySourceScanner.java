@@ -0,0 +1,123 @@
+package com.sai.tools.k8s;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Finds the Spring Boot property sources (<code>application.properties</code>, <code>application-{profile}.properties</code>
+ * and, when asked for, their YAML equivalents) under the resources directory. Include globs are matched against the file name, exclude globs against the path
+ * relative to the resources directory, for files and directories alike. Excluded, hidden and too deep directories
+ * are never descended into.
+ *
+ * @author Sai.
+ */
+final class PropertySourceScanner {
+
+    static final List<String> DEFAULT_INCLUDES = Collections.singletonList("application*.properties");
+    static final List<String> YAML_INCLUDES = Collections.unmodifiableList(Arrays.asList("application*.yml", "application*.yaml"));
+    static final List<String> DEFAULT_EXCLUDES = Collections.unmodifiableList(Arrays.asList(
+            "static", "public", "templates", "META-INF", "db"));
+    /**
+     * The resources directory itself and one level below it, which covers Spring's <code>config/</code> directory.
+     */
+    static final int DEFAULT_MAX_DEPTH = 2;
+
+    private static final String APPLICATION_PREFIX = "application-";
+
+    private final List<PathMatcher> includes;
+    private final List<PathMatcher> excludes;
+    private final int maxDepth;
+
+    PropertySourceScanner(final List<String> includes, final List<String> excludes, final int maxDepth, final boolean includeYaml) {
+        FileSystem fileSystem = FileSystems.getDefault();
+        List<String> includeGlobs = new ArrayList<>(includes == null || includes.isEmpty() ? DEFAULT_INCLUDES : includes);
+        if (includeYaml) {
+            includeGlobs.addAll(YAML_INCLUDES);
+        }
+        this.includes = toMatchers(fileSystem, includeGlobs);
+        this.excludes = toMatchers(fileSystem, excludes == null ? DEFAULT_EXCLUDES : excludes);
+        this.maxDepth = maxDepth < 1 ? DEFAULT_MAX_DEPTH : maxDepth;
+    }
+
+    /**
+     * @return the matching files, sorted by their path relative to the resources directory.
+     */
+    List<Path> scan(final Path resourcesDirectory) throws IOException {
+        List<Path> found = new ArrayList<>();
+        if (!Files.isDirectory(resourcesDirectory)) {
+            return found;
+        }
+        Files.walkFileTree(resourcesDirectory, EnumSet.noneOf(FileVisitOption.class), maxDepth, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+                if (dir.equals(resourcesDirectory)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                return isHidden(dir) || matchesAny(excludes, resourcesDirectory.relativize(dir)) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()
+                        && !isHidden(file)
+                        && matchesAny(includes, file.getFileName())
+                        && !matchesAny(excludes, resourcesDirectory.relativize(file))) {
+                    found.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        found.sort((a, b) -> resourcesDirectory.relativize(a).toString().compareTo(resourcesDirectory.relativize(b).toString()));
+        return found;
+    }
+
+    /**
+     * The Spring profile a property source belongs to, or the empty string for the base <code>application.*</code> file.
+     */
+    static String environmentOf(final Path file) {
+        String fileName = file.getFileName().toString();
+        if (!fileName.startsWith(APPLICATION_PREFIX)) {
+            return "";
+        }
+        int extension = fileName.lastIndexOf('.');
+        return fileName.substring(APPLICATION_PREFIX.length(), extension > APPLICATION_PREFIX.length() ? extension : fileName.length());
+    }
+
+    static boolean isYaml(final Path file) {
+        String fileName = file.getFileName().toString();
+        return fileName.endsWith(".yml") || fileName.endsWith(".yaml");
+    }
+
+    private static boolean isHidden(final Path path) {
+        return path.getFileName().toString().startsWith(".");
+    }
+
+    private static boolean matchesAny(final List<PathMatcher> matchers, final Path path) {
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<PathMatcher> toMatchers(final FileSystem fileSystem, final List<String> globs) {
+        return globs.stream()
+                .map(glob -> fileSystem.getPathMatcher("glob:" + glob))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,125 @@
+package com.sai.tools.k8s;
+
+import org.apache.maven.SessionScoped;
+
+import javax.inject.Named;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The {@link GenerationMetrics} of every module of the build that ran <code>generate-deployment</code>, rolled up into
+ * one JSON report for tracking the build over time. Every module rewrites the roll-up with the modules done so far, so
+ * it is complete once the last one is, in whatever order <code>-T</code> finishes them.
+ *
+ * @author Sai.
+ */
+@Named
+@SessionScoped
+public class ReactorMetrics {
+
+    static final String REPORT_FILE = "k8s-generation-metrics-reactor.json";
+    private static final int SLOWEST_MODULES = 10;
+
+    private final List<Module> modules = new ArrayList<>();
+
+    /**
+     * Adds the metrics of a module and rewrites the roll-up.
+     */
+    synchronized void add(final GenerationSettings settings, final GenerationReport report, final Path outputDir) {
+        modules.add(new Module(settings.getArtifactId(), report));
+        new OutputWriter().write(outputDir.resolve(REPORT_FILE), toJson());
+    }
+
+    /**
+     * One line for the build log, summed over the modules.
+     */
+    synchronized String summary() {
+        long wall = 0;
+        long keys = 0;
+        long bytesWritten = 0;
+        for (Module module : modules) {
+            wall += module.metrics.getWallNanos();
+            keys += module.metrics.getKeys();
+            bytesWritten += module.metrics.getBytesWritten();
+        }
+        List<Module> slowest = slowest();
+        return String.format("%d module(s) in %s ms, %d key(s), %d byte(s) written; slowest: %s", modules.size(),
+                GenerationMetrics.millis(wall), keys, bytesWritten, slowest.isEmpty() ? "none" : slowest.get(0).artifactId);
+    }
+
+    private List<Module> slowest() {
+        List<Module> slowest = new ArrayList<>(modules);
+        slowest.sort(Comparator.comparingLong((Module module) -> module.metrics.getWallNanos()).reversed());
+        return slowest.subList(0, Math.min(SLOWEST_MODULES, slowest.size()));
+    }
+
+    private String toJson() {
+        long wall = 0;
+        long keys = 0;
+        long bytesWritten = 0;
+        int environments = 0;
+        int rendered = 0;
+        int filesWritten = 0;
+        int filesSkipped = 0;
+        long[] nanos = new long[GenerationMetrics.Phase.values().length];
+        long[] allocated = new long[nanos.length];
+        for (Module module : modules) {
+            GenerationMetrics metrics = module.metrics;
+            wall += metrics.getWallNanos();
+            keys += metrics.getKeys();
+            bytesWritten += metrics.getBytesWritten();
+            environments += module.report.getRenderedEnvironments().size() + module.report.getUpToDateEnvironments().size();
+            rendered += module.report.getRenderedEnvironments().size();
+            filesWritten += module.report.getFilesWritten();
+            filesSkipped += module.report.getFilesSkipped();
+            for (GenerationMetrics.Phase phase : GenerationMetrics.Phase.values()) {
+                nanos[phase.ordinal()] += metrics.getNanos(phase);
+                allocated[phase.ordinal()] += metrics.getAllocatedBytes(phase);
+            }
+        }
+        StringBuilder out = new StringBuilder("{\n");
+        out.append("  \"modules\": ").append(modules.size()).append(",\n");
+        out.append("  \"wallMillis\": ").append(GenerationMetrics.millis(wall)).append(",\n");
+        out.append("  \"counts\": {\n");
+        out.append("    \"environments\": ").append(environments).append(",\n");
+        out.append("    \"environmentsRendered\": ").append(rendered).append(",\n");
+        out.append("    \"keys\": ").append(keys).append(",\n");
+        out.append("    \"filesWritten\": ").append(filesWritten).append(",\n");
+        out.append("    \"filesSkipped\": ").append(filesSkipped).append(",\n");
+        out.append("    \"bytesWritten\": ").append(bytesWritten).append("\n");
+        out.append("  },\n");
+        out.append("  \"phases\": {\n");
+        for (GenerationMetrics.Phase phase : GenerationMetrics.Phase.values()) {
+            out.append("    ").append(GenerationMetrics.quote(phase.key())).append(": {\"millis\": ").append(GenerationMetrics.millis(nanos[phase.ordinal()]))
+                    .append(", \"allocatedBytes\": ").append(allocated[phase.ordinal()] < 0 ? -1 : allocated[phase.ordinal()]).append('}')
+                    .append(phase.ordinal() < nanos.length - 1 ? ",\n" : "\n");
+        }
+        out.append("  },\n");
+        out.append("  \"slowestModules\": [\n");
+        List<Module> slowest = slowest();
+        for (int i = 0; i < slowest.size(); i++) {
+            Module module = slowest.get(i);
+            out.append("    {\"artifactId\": ").append(GenerationMetrics.quote(module.artifactId))
+                    .append(", \"startedAt\": ").append(GenerationMetrics.quote(module.metrics.getStartedAt().toString()))
+                    .append(", \"wallMillis\": ").append(GenerationMetrics.millis(module.metrics.getWallNanos()))
+                    .append(", \"environmentsRendered\": ").append(module.report.getRenderedEnvironments().size()).append('}')
+                    .append(i < slowest.size() - 1 ? ",\n" : "\n");
+        }
+        return out.append("  ]\n}\n").toString();
+    }
+
+    private static final class Module {
+
+        private final String artifactId;
+        private final GenerationReport report;
+        private final GenerationMetrics metrics;
+
+        private Module(final String artifactId, final GenerationReport report) {
+            this.artifactId = artifactId;
+            this.report = report;
+            this.metrics = report.getMetrics();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.sai.tools.k8s;
+
+import org.apache.maven.SessionScoped;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+
+import javax.inject.Named;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Which modules of the build are done with <code>generate-deployment</code>, for the reactor wide goals to only read
+ * their service metadata once all of them are, whatever order <code>-T</code> runs the modules in. A module is done
+ * once its goal ran, or once its build finished. Work asked for too early is deferred, and run by whichever goal
+ * completes the set, unless its module failed.
+ *
+ * @author Sai.
+ */
+@Named
+@SessionScoped
+public class ReactorProgress {
+
+    static final String DEPLOYMENT_GOAL = "generate-deployment";
+
+    /**
+     * Reactor wide work, run once every module is done with <code>generate-deployment</code>.
+     */
+    interface Job {
+        void run() throws MojoExecutionException;
+    }
+
+    private final Set<String> deploymentsGenerated = new HashSet<>();
+    private Job pendingIngress;
+    private boolean ingressGenerated;
+
+    /**
+     * Records that a module is done with <code>generate-deployment</code>, whether it succeeded or not.
+     */
+    synchronized void deploymentGenerated(final MavenProject project) {
+        deploymentsGenerated.add(project.getId());
+    }
+
+    /**
+     * Runs the deferred Ingress generation if every module is done with <code>generate-deployment</code>. Called by
+     * the modules that succeeded, so that a failed one neither runs it from its partial output nor hides its failure.
+     *
+     * @return false if nothing was run.
+     */
+    synchronized boolean runPendingIngress(final MavenSession session, final String pluginKey) throws MojoExecutionException {
+        if (pendingIngress == null || !remaining(session, pluginKey).isEmpty()) {
+            return false;
+        }
+        Job ingress = pendingIngress;
+        pendingIngress = null;
+        ingressGenerated = true;
+        ingress.run();
+        return true;
+    }
+
+    /**
+     * Runs the Ingress generation now if every module is done with <code>generate-deployment</code>, or defers it to
+     * the last of them. Only runs it once per build.
+     *
+     * @return false if the generation was deferred, or already done.
+     */
+    synchronized boolean ingressRequested(final MavenSession session, final String pluginKey, final Job ingress)
+            throws MojoExecutionException {
+        if (ingressGenerated) {
+            return false;
+        }
+        if (!remaining(session, pluginKey).isEmpty()) {
+            pendingIngress = ingress;
+            return false;
+        }
+        pendingIngress = null;
+        ingressGenerated = true;
+        ingress.run();
+        return true;
+    }
+
+    /**
+     * The modules that run <code>generate-deployment</code> and are not done with it yet.
+     */
+    synchronized List<MavenProject> remaining(final MavenSession session, final String pluginKey) {
+        return session.getProjects().stream()
+                .filter(project -> runsDeployment(session, project, pluginKey))
+                .filter(project -> !deploymentsGenerated.contains(project.getId()))
+                .filter(project -> session.getResult().getBuildSummary(project) == null)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Whether <code>generate-deployment</code> runs in the module: bound in its pom, or given on the command line.
+     */
+    static boolean runsDeployment(final MavenSession session, final MavenProject project, final String pluginKey) {
+        if (session.getGoals().stream().anyMatch(goal -> goal.endsWith(":" + DEPLOYMENT_GOAL))) {
+            return true;
+        }
+        Plugin plugin = project.getPlugin(pluginKey);
+        return plugin != null && plugin.getExecutions().stream().anyMatch(execution -> execution.getGoals().contains(DEPLOYMENT_GOAL));
+    }
+}
@@ -0,0 +1,79 @@
+package com.sai.tools.k8s;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * What a module's <code>generate-deployment</code> run tells the reactor wide goals about its service: the service
+ * name and, per environment, the port it listens on. Kept next to the descriptors as
+ * <code>&lt;artifactId&gt;-service.properties</code> so that nobody has to parse the generated YAML again.
+ *
+ * @author Sai.
+ */
+final class ServiceMetadata {
+
+    static final String FILE_SUFFIX = "-service.properties";
+
+    private static final String SERVICE_NAME = "serviceName";
+    private static final String PORT_PREFIX = "port.";
+
+    private final String serviceName;
+    private final SortedMap<String, String> portsPerEnvironment;
+
+    ServiceMetadata(final String serviceName, final Map<String, String> portsPerEnvironment) {
+        this.serviceName = serviceName;
+        this.portsPerEnvironment = Collections.unmodifiableSortedMap(new TreeMap<>(portsPerEnvironment));
+    }
+
+    static Path file(final Path outputDir, final String artifactId) {
+        return outputDir.resolve(artifactId + FILE_SUFFIX);
+    }
+
+    /**
+     * @return the metadata of the given file, or null when there is none.
+     */
+    static ServiceMetadata load(final Path file) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        Map<String, String> ports = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(PORT_PREFIX)) {
+                ports.put(key.substring(PORT_PREFIX.length()), properties.getProperty(key));
+            }
+        }
+        return new ServiceMetadata(properties.getProperty(SERVICE_NAME), ports);
+    }
+
+    String getServiceName() {
+        return serviceName;
+    }
+
+    SortedMap<String, String> getPortsPerEnvironment() {
+        return portsPerEnvironment;
+    }
+
+    /**
+     * A stable rendering (sorted, no timestamp), so that unchanged metadata leaves the file untouched.
+     */
+    String render() {
+        StringBuilder out = new StringBuilder();
+        out.append(SERVICE_NAME).append('=').append(serviceName).append('\n');
+        portsPerEnvironment.forEach((env, port) -> out.append(PORT_PREFIX).append(env).append('=').append(port).append('\n'));
+        return out.toString();
+    }
+}
@@ -0,0 +1,190 @@
+package com.sai.tools.k8s;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * How the container starts and stops: the actuator health probes, derived from the management settings of the
+ * environment's properties, class data sharing, and the drain delay before shutdown, sized from Spring's graceful
+ * shutdown settings.
+ *
+ * @author Sai.
+ */
+final class StartupProfile {
+
+    static final String CDS_NONE = "none";
+    static final String CDS_IMAGE = "image";
+    static final String CDS_AUTO = "auto";
+
+    private static final String CDS_VOLUME = "cds-archive";
+    private static final int STARTUP_PERIOD_SECONDS = 5;
+    /**
+     * Time left, after the drain delay and Spring's own shutdown phase, before the kubelet kills the container.
+     */
+    private static final long SHUTDOWN_MARGIN_SECONDS = 5;
+    private static final Duration DEFAULT_SHUTDOWN_PHASE_TIMEOUT = Duration.ofSeconds(30);
+
+    private final GenerationSettings settings;
+    private final Function<String, Object> properties;
+
+    private StartupProfile(final GenerationSettings settings, final Function<String, Object> properties) {
+        this.settings = settings;
+        this.properties = properties;
+        String cds = settings.getClassDataSharing();
+        if (!CDS_NONE.equals(cds) && !CDS_IMAGE.equals(cds) && !CDS_AUTO.equals(cds)) {
+            throw new IllegalArgumentException("classDataSharing must be one of none, image or auto, not " + cds);
+        }
+    }
+
+    /**
+     * @param properties looks an environment's properties up by name.
+     */
+    static StartupProfile of(final GenerationSettings settings, final Function<String, Object> properties) {
+        return new StartupProfile(settings, properties);
+    }
+
+    /**
+     * The startup, readiness and liveness probes of the container, on the actuator's Kubernetes health groups, or
+     * nothing when probes are off. The startup probe gives the application
+     * {@link GenerationSettings#getStartupTimeoutSeconds()} to come up before the liveness probe takes over.
+     */
+    String probes() {
+        if (!settings.isProbes()) {
+            return "";
+        }
+        String healthPath = healthPath();
+        int startupFailureThreshold = Math.max(1, (settings.getStartupTimeoutSeconds() + STARTUP_PERIOD_SECONDS - 1) / STARTUP_PERIOD_SECONDS);
+        return probe("startupProbe", healthPath + "/liveness", STARTUP_PERIOD_SECONDS, startupFailureThreshold)
+                + probe("readinessProbe", healthPath + "/readiness", 5, 3)
+                + probe("livenessProbe", healthPath + "/liveness", 10, 3);
+    }
+
+    /**
+     * The <code>preStop</code> hook holding the shutdown back while the endpoints stop routing to the pod, or nothing
+     * without a drain delay.
+     */
+    String lifecycle() {
+        if (settings.getPreStopDelaySeconds() <= 0) {
+            return "";
+        }
+        return "        lifecycle:\n"
+                + "          preStop:\n"
+                + "            exec:\n"
+                + "              command: [\"sh\", \"-c\", \"sleep " + settings.getPreStopDelaySeconds() + "\"]\n";
+    }
+
+    /**
+     * The <code>terminationGracePeriodSeconds</code> of the pod covering the drain delay and Spring's graceful shutdown,
+     * or nothing without a drain delay.
+     */
+    String terminationGracePeriod() {
+        if (settings.getPreStopDelaySeconds() <= 0) {
+            return "";
+        }
+        long shutdown = "graceful".equalsIgnoreCase(String.valueOf(properties.apply("server.shutdown")))
+                ? (shutdownPhaseTimeout().toMillis() + 999) / 1000
+                : 0;
+        return "      terminationGracePeriodSeconds: " + (settings.getPreStopDelaySeconds() + shutdown + SHUTDOWN_MARGIN_SECONDS) + "\n";
+    }
+
+    /**
+     * The class data sharing flags, or null when off. In <code>image</code> mode the archive was built into the image;
+     * in <code>auto</code> mode, the JVM (19 or later) dumps it on the first start into a volume kept across restarts of
+     * the container.
+     */
+    String javaToolOptions() {
+        switch (settings.getClassDataSharing()) {
+            case CDS_IMAGE:
+                return "-XX:SharedArchiveFile=" + settings.getCdsArchive() + " -Xshare:auto";
+            case CDS_AUTO:
+                return "-XX:SharedArchiveFile=" + settings.getCdsArchive() + " -XX:+AutoCreateSharedArchive -Xshare:auto";
+            default:
+                return null;
+        }
+    }
+
+    String volumeMounts() {
+        if (!CDS_AUTO.equals(settings.getClassDataSharing())) {
+            return "";
+        }
+        return "        - mountPath: " + archiveDirectory() + "\n"
+                + "          name: " + CDS_VOLUME + "\n";
+    }
+
+    String volumes() {
+        if (!CDS_AUTO.equals(settings.getClassDataSharing())) {
+            return "";
+        }
+        return "      - name: " + CDS_VOLUME + "\n"
+                + "        emptyDir: {}\n";
+    }
+
+    /**
+     * Where the actuator serves <code>health</code>: its base path, behind the management server's own context path
+     * when it has a port of its own, behind the application's otherwise.
+     */
+    private String healthPath() {
+        String basePath = property("management.endpoints.web.base-path", "/actuator");
+        String contextPath = property("management.server.port", null) != null
+                ? property("management.server.base-path", property("management.server.servlet.context-path", ""))
+                : property("server.servlet.context-path", "");
+        return (trimSlash(contextPath) + trimSlash(basePath) + "/health").replaceAll("//+", "/");
+    }
+
+    private String port() {
+        return property("management.server.port", property("server.port", "8080"));
+    }
+
+    private String probe(final String name, final String path, final int periodSeconds, final int failureThreshold) {
+        return "        " + name + ":\n"
+                + "          httpGet:\n"
+                + "            path: " + path + "\n"
+                + "            port: " + port() + "\n"
+                + "          periodSeconds: " + periodSeconds + "\n"
+                + "          failureThreshold: " + failureThreshold + "\n";
+    }
+
+    private Duration shutdownPhaseTimeout() {
+        String timeout = property("spring.lifecycle.timeout-per-shutdown-phase", null);
+        return timeout == null ? DEFAULT_SHUTDOWN_PHASE_TIMEOUT : duration(timeout);
+    }
+
+    private String archiveDirectory() {
+        String archive = settings.getCdsArchive();
+        int slash = archive.lastIndexOf('/');
+        return slash > 0 ? archive.substring(0, slash) : "/";
+    }
+
+    private String property(final String name, final String defaultValue) {
+        Object value = properties.apply(name);
+        return value == null || value.toString().trim().isEmpty() ? defaultValue : value.toString().trim();
+    }
+
+    private static String trimSlash(final String path) {
+        String trimmed = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        return trimmed.isEmpty() || trimmed.startsWith("/") ? trimmed : "/" + trimmed;
+    }
+
+    /**
+     * Parses a duration the way Spring Boot does: <code>500ms</code>, <code>30s</code>, <code>1m</code>,
+     * <code>PT30S</code>, or plain milliseconds.
+     */
+    static Duration duration(final String value) {
+        String trimmed = value.trim();
+        try {
+            if (trimmed.startsWith("P") || trimmed.startsWith("p")) {
+                return Duration.parse(trimmed);
+            }
+            String[] units = {"ms", "s", "m", "h", "d"};
+            long[] millis = {1, 1000, 60_000, 3_600_000, 86_400_000};
+            for (int i = 0; i < units.length; i++) {
+                if (trimmed.endsWith(units[i])) {
+                    return Duration.ofMillis(Long.parseLong(trimmed.substring(0, trimmed.length() - units[i].length()).trim()) * millis[i]);
+                }
+            }
+            return Duration.ofMillis(Long.parseLong(trimmed));
+        } catch (RuntimeException ex) {
+            throw new IllegalArgumentException("Not a duration: " + value, ex);
+        }
+    }
+}
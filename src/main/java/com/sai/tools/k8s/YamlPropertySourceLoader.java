@@ -0,0 +1,337 @@
+package com.sai.tools.k8s;
+
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.events.AliasEvent;
+import org.yaml.snakeyaml.events.CollectionStartEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.ScalarEvent;
+
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Reads a Spring Boot <code>application.yml</code> into flat, dotted properties the same way Spring does
+ * (<code>a.b.c</code> for nested maps, <code>a.b[0]</code> for lists), working off SnakeYAML's event stream so that no
+ * object graph of the document is ever built.
+ * <p>
+ * Every document of the stream is assigned to an environment: documents activated through <code>spring.profiles</code>
+ * or <code>spring.config.activate.on-profile</code> belong to the listed profiles, the others to the profile of the
+ * file itself. Documents activated through a profile expression (<code>!prod</code>, <code>prod &amp; eu</code>) are
+ * not supported and left out.
+ *
+ * @author Sai.
+ */
+final class YamlPropertySourceLoader {
+
+    private static final String[] PROFILE_KEYS = {"spring.config.activate.on-profile", "spring.profiles"};
+    private static final String MERGE_KEY = "<<";
+
+    private YamlPropertySourceLoader() {
+    }
+
+    /**
+     * @param fileEnvironment the environment the file belongs to by its name, the empty string for the base file.
+     * @return the properties per environment, in document order.
+     */
+    static Map<String, Properties> load(final Reader reader, final String fileEnvironment) {
+        Map<String, Properties> environments = new LinkedHashMap<>();
+        Flattener flattener = new Flattener();
+        for (Event event : new Yaml().parse(reader)) {
+            Map<String, String> document = flattener.accept(event);
+            if (document == null) {
+                continue;
+            }
+            for (String environment : activeEnvironments(document, fileEnvironment)) {
+                environments.computeIfAbsent(environment, env -> new Properties()).putAll(document);
+            }
+        }
+        return environments;
+    }
+
+    private static List<String> activeEnvironments(final Map<String, String> document, final String fileEnvironment) {
+        List<String> profiles = new ArrayList<>();
+        boolean activated = false;
+        for (String profileKey : PROFILE_KEYS) {
+            Iterator<Map.Entry<String, String>> entries = document.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, String> entry = entries.next();
+                String key = entry.getKey();
+                if (key.equals(profileKey) || key.startsWith(profileKey + "[")) {
+                    activated = true;
+                    for (String profile : entry.getValue().split(",")) {
+                        profiles.add(profile.trim());
+                    }
+                    entries.remove();
+                }
+            }
+        }
+        if (!activated) {
+            return Collections.singletonList(fileEnvironment);
+        }
+        List<String> environments = new ArrayList<>();
+        for (String profile : profiles) {
+            if (profile.isEmpty() || profile.startsWith("!") || profile.contains("&") || profile.contains("|") || profile.contains("(")) {
+                continue;
+            }
+            environments.add(profile);
+        }
+        return environments;
+    }
+
+    /**
+     * Turns the events of one document at a time into flat properties.
+     */
+    private static final class Flattener {
+
+        private final Deque<Node> nodes = new ArrayDeque<>();
+        private final List<Recording> recordings = new ArrayList<>();
+        private final Map<String, Map<String, String>> anchors = new HashMap<>();
+        private Map<String, String> document;
+
+        /**
+         * @return the flattened document once its end has been reached, null otherwise.
+         */
+        Map<String, String> accept(final Event event) {
+            if (event.is(Event.ID.DocumentStart)) {
+                document = new LinkedHashMap<>();
+                nodes.clear();
+                recordings.clear();
+                anchors.clear();
+            } else if (event.is(Event.ID.DocumentEnd)) {
+                Map<String, String> completed = document;
+                document = null;
+                return completed;
+            } else if (event.is(Event.ID.MappingStart) || event.is(Event.ID.SequenceStart)) {
+                startCollection((CollectionStartEvent) event);
+            } else if (event.is(Event.ID.MappingEnd) || event.is(Event.ID.SequenceEnd)) {
+                endCollection();
+            } else if (event.is(Event.ID.Scalar)) {
+                scalar((ScalarEvent) event);
+            } else if (event.is(Event.ID.Alias)) {
+                alias((AliasEvent) event);
+            }
+            return null;
+        }
+
+        private void startCollection(final CollectionStartEvent event) {
+            Node parent = nodes.peek();
+            String path = parent == null ? "" : childPath(parent);
+            boolean sequence = event.is(Event.ID.SequenceStart);
+            Node node = new Node(path, sequence, event.getAnchor(), nodes.size() + 1);
+            // <<: [*a, *b] merges every map of the list into the mapping.
+            node.mergeList = sequence && parent != null && parent.isMerging();
+            nodes.push(node);
+            if (event.getAnchor() != null) {
+                recordings.add(new Recording(event.getAnchor(), path, node.depth));
+            }
+        }
+
+        private void endCollection() {
+            Node node = nodes.pop();
+            if (node.merged != null) {
+                // Merged keys never override the keys of the mapping itself, wherever they appear in it.
+                for (Map.Entry<String, String> entry : node.merged.entrySet()) {
+                    if (!node.definesExplicitly(entry.getKey())) {
+                        put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            if (node.anchor != null) {
+                Recording recording = recordings.remove(recordings.size() - 1);
+                anchors.put(recording.anchor, recording.entries);
+            }
+            advance();
+        }
+
+        private void scalar(final ScalarEvent event) {
+            Node parent = nodes.peek();
+            if (parent == null) {
+                return; // A document that is a single scalar holds no properties.
+            }
+            if (!parent.sequence && parent.expectingKey) {
+                parent.readKey(event.getValue());
+                return;
+            }
+            String path = childPath(parent);
+            String value = isNull(event) ? "" : event.getValue();
+            if (event.getAnchor() != null) {
+                anchors.put(event.getAnchor(), Collections.singletonMap("", value));
+            }
+            put(path, value);
+            advance();
+        }
+
+        private void alias(final AliasEvent event) {
+            Node parent = nodes.peek();
+            if (parent == null) {
+                return;
+            }
+            if (!parent.sequence && parent.expectingKey) {
+                // An aliased key, only meaningful for scalars.
+                Map<String, String> aliased = anchors.get(event.getAnchor());
+                parent.readKey(aliased == null ? "" : aliased.get(""));
+                return;
+            }
+            String path = childPath(parent);
+            Map<String, String> aliased = anchors.get(event.getAnchor());
+            if (aliased != null) {
+                for (Map.Entry<String, String> entry : aliased.entrySet()) {
+                    put(resolve(path, entry.getKey()), entry.getValue());
+                }
+            }
+            advance();
+        }
+
+        /**
+         * Puts a property into the document, or holds it back in the mapping whose merge key (<code>&lt;&lt;</code>) is
+         * being read, the first merged value of a key winning. The anchors being recorded below that mapping get it
+         * now, the others once the mapping has weighed it against its own keys.
+         */
+        private void put(final String path, final String value) {
+            Node receiver = null;
+            for (Node node : nodes) {
+                if (node.isMerging()) {
+                    receiver = node;
+                    break;
+                }
+            }
+            if (receiver == null) {
+                document.put(path, value);
+            } else {
+                receiver.merged.putIfAbsent(path, value);
+            }
+            int depth = receiver == null ? 0 : receiver.depth;
+            for (Recording recording : recordings) {
+                if (recording.depth > depth) {
+                    recording.entries.put(relativize(recording.path, path), value);
+                }
+            }
+        }
+
+        private void advance() {
+            Node parent = nodes.peek();
+            if (parent == null) {
+                return;
+            }
+            if (parent.sequence) {
+                parent.index++;
+            } else {
+                parent.expectingKey = true;
+            }
+        }
+
+        private static String childPath(final Node parent) {
+            if (parent.mergeList) {
+                return parent.path;
+            }
+            if (parent.sequence) {
+                return parent.path + "[" + parent.index + "]";
+            }
+            if (MERGE_KEY.equals(parent.key)) {
+                return parent.path;
+            }
+            return parent.path.isEmpty() ? parent.key : parent.path + "." + parent.key;
+        }
+
+        /**
+         * The suffix of a path below an anchored node, keeping its leading separator.
+         */
+        private static String relativize(final String base, final String path) {
+            if (base.isEmpty()) {
+                return path.isEmpty() || path.startsWith("[") ? path : "." + path;
+            }
+            return path.substring(base.length());
+        }
+
+        private static String resolve(final String base, final String relative) {
+            if (base.isEmpty()) {
+                return relative.startsWith(".") ? relative.substring(1) : relative;
+            }
+            return base + relative;
+        }
+
+        private static boolean isNull(final ScalarEvent event) {
+            if (event.getScalarStyle() != DumperOptions.ScalarStyle.PLAIN) {
+                return false;
+            }
+            String value = event.getValue();
+            return value.isEmpty() || "~".equals(value) || "null".equals(value) || "Null".equals(value) || "NULL".equals(value);
+        }
+    }
+
+    private static final class Node {
+        private final String path;
+        private final boolean sequence;
+        private final String anchor;
+        private final int depth;
+        private boolean mergeList;
+        private int index;
+        private String key;
+        private boolean expectingKey = true;
+        private final List<String> explicitKeys = new ArrayList<>();
+        private Map<String, String> merged;
+
+        private Node(final String path, final boolean sequence, final String anchor, final int depth) {
+            this.path = path;
+            this.sequence = sequence;
+            this.anchor = anchor;
+            this.depth = depth;
+        }
+
+        private void readKey(final String key) {
+            this.key = key;
+            expectingKey = false;
+            if (MERGE_KEY.equals(key)) {
+                if (merged == null) {
+                    merged = new LinkedHashMap<>();
+                }
+            } else {
+                explicitKeys.add(key);
+            }
+        }
+
+        /**
+         * Whether the value of a merge key of this mapping is being read.
+         */
+        private boolean isMerging() {
+            return !sequence && !expectingKey && MERGE_KEY.equals(key);
+        }
+
+        /**
+         * Whether the property at the given path lies below a key this mapping defines itself.
+         */
+        private boolean definesExplicitly(final String propertyPath) {
+            String relative = Flattener.relativize(path, propertyPath);
+            for (String explicitKey : explicitKeys) {
+                String prefix = "." + explicitKey;
+                if (relative.equals(prefix) || relative.startsWith(prefix + ".") || relative.startsWith(prefix + "[")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Recording {
+        private final String anchor;
+        private final String path;
+        private final int depth;
+        private final Map<String, String> entries = new LinkedHashMap<>();
+
+        private Recording(final String anchor, final String path, final int depth) {
+            this.anchor = anchor;
+            this.path = path;
+            this.depth = depth;
+        }
+    }
+}
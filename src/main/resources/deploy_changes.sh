@@ -0,0 +1,47 @@
+#!/bin/sh
+# Applies what changed in the manifests of ${serviceName} since the previous build, for every given environment: the
+# documents added, with a server side apply, and the merge patches of the documents modified. Environments without
+# changes are skipped. Pods are restarted when only their ConfigMaps changed, then the Deployment is waited for.
+# Documents removed are left in the cluster. KUBECTL and ROLLOUT_TIMEOUT override the kubectl command and the timeout.
+set -e
+if [ -z "$1" ]; then
+    echo "Please call '$0 <environment>...' to run this command!"
+    exit 1
+fi
+[ -n "$KUBECTL" ] || KUBECTL=kubectl
+[ -n "$ROLLOUT_TIMEOUT" ] || ROLLOUT_TIMEOUT=${rolloutTimeout}
+DIR=$(dirname "$0")
+for ENV in "$@"; do
+    CHANGES="$DIR/${serviceName}-changes-$ENV.json"
+    if [ ! -f "$CHANGES" ]; then
+        echo "No changes for environment $ENV: $CHANGES"
+        exit 1
+    fi
+    if grep -q '"changed": false' "$CHANGES"; then
+        echo "No changes in environment $ENV, skipped"
+        continue
+    fi
+    ROLLOUT=""
+    for FILE in "$DIR/${serviceName}-patches-$ENV"/*; do
+        [ -f "$FILE" ] || continue
+        # NN_kind_namespace_name.json or .yml
+        BASE=$(basename "$FILE" | sed 's/\.[a-z]*$//')
+        KIND=$(echo "$BASE" | cut -d_ -f2)
+        NAMESPACE=$(echo "$BASE" | cut -d_ -f3)
+        NAME=$(echo "$BASE" | cut -d_ -f4)
+        NS=""
+        [ "$NAMESPACE" = "-" ] || NS="--namespace=$NAMESPACE"
+        case "$FILE" in
+            *.yml) $KUBECTL apply --server-side --force-conflicts --field-manager=k8s-utils -f "$FILE" ;;
+            *) $KUBECTL patch "$KIND" "$NAME" $NS --type merge --patch-file "$FILE" ;;
+        esac
+        [ "$KIND" != "deployment" ] || ROLLOUT="true"
+    done
+    if grep -q '"restart": true' "$CHANGES"; then
+        $KUBECTL rollout restart deployment/${serviceName}
+        ROLLOUT="true"
+    fi
+    if [ -n "$ROLLOUT" ]; then
+        $KUBECTL rollout status deployment/${serviceName} --timeout="$ROLLOUT_TIMEOUT"
+    fi
+done
@@ -1,12 +1,27 @@
 #!/bin/sh
+# Applies the ConfigMaps of ${serviceName} for every given environment in a single server side apply. With
+# --all-services, the ConfigMaps of every service next to this script are applied together. KUBECTL overrides the
+# kubectl command.
+set -e
+SERVICES=${serviceName}
+if [ "$1" = "--all-services" ]; then
+    SERVICES="*"
+    shift
+fi
 if [ -z "$1" ]; then
-    echo -e "\nPlease call '$0 <environment>' to run this command!\n"
+    echo "Please call '$0 [--all-services] <environment>...' to run this command!"
     exit 1
 fi
-ENV=$1
-CONFIGMAP_FILE=${serviceName}-configmap-$ENV.yml
-
-do
-kubectl delete -f $CONFIGMAP_FILE
+[ -n "$KUBECTL" ] || KUBECTL=kubectl
+DIR=$(dirname "$0")
+FILES=""
+for ENV in "$@"; do
+    for CONFIGMAP_FILE in "$DIR"/$SERVICES-configmap-$ENV.yml; do
+        if [ ! -f "$CONFIGMAP_FILE" ]; then
+            echo "No ConfigMaps for environment $ENV: $CONFIGMAP_FILE"
+            exit 1
+        fi
+        FILES="$FILES -f $CONFIGMAP_FILE"
+    done
 done
-
+$KUBECTL apply --server-side --force-conflicts --field-manager=k8s-utils $FILES
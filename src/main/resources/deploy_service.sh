@@ -1,14 +1,34 @@
 #!/bin/sh
+# Applies the ConfigMaps, Service and Deployment of ${serviceName} for every given environment in a single server side
+# apply, then waits for the Deployments to roll out. The ConfigMap files are applied as they are, with any value
+# encrypted into them since they were generated. With --all-services, the files of every service next to this script
+# are applied together. KUBECTL and ROLLOUT_TIMEOUT override the kubectl command and the timeout.
+set -e
+SERVICES=${serviceName}
+if [ "$1" = "--all-services" ]; then
+    SERVICES="*"
+    shift
+fi
 if [ -z "$1" ]; then
-    echo -e "\nPlease call '$0 <environment>' to run this command!\n"
+    echo "Please call '$0 [--all-services] <environment>...' to run this command!"
     exit 1
 fi
-ENV=$1
-DEPLOYMENT_FILE=${serviceName}-deployment-$ENV.yml
-kubectl delete -f $DEPLOYMENT_FILE
-
-
-kubectl create -f $DEPLOYMENT_FILE
-
-kubectl get pods
-
+[ -n "$KUBECTL" ] || KUBECTL=kubectl
+[ -n "$ROLLOUT_TIMEOUT" ] || ROLLOUT_TIMEOUT=${rolloutTimeout}
+DIR=$(dirname "$0")
+FILES=""
+for ENV in "$@"; do
+    for DEPLOYMENT_FILE in "$DIR"/$SERVICES-deployment-$ENV.yml; do
+        CONFIGMAP_FILE=$(echo "$DEPLOYMENT_FILE" | sed 's/-deployment-\([^/]*\)$/-configmap-\1/')
+        if [ ! -f "$DEPLOYMENT_FILE" ] || [ ! -f "$CONFIGMAP_FILE" ]; then
+            echo "No manifests for environment $ENV: $DEPLOYMENT_FILE"
+            exit 1
+        fi
+        FILES="$FILES -f $CONFIGMAP_FILE -f $DEPLOYMENT_FILE"
+    done
+done
+APPLIED=$($KUBECTL apply --server-side --force-conflicts --field-manager=k8s-utils $FILES -o name)
+echo "$APPLIED"
+for DEPLOYMENT in $(echo "$APPLIED" | grep '^deployment' | sort -u); do
+    $KUBECTL rollout status "$DEPLOYMENT" --timeout="$ROLLOUT_TIMEOUT"
+done
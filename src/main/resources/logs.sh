@@ -1,3 +1,4 @@
 #!/bin/sh
-POD=$(kubectl get pod -l app=${serviceName} -o jsonpath="{.items[0].metadata.name}")
-kubectl logs -f $POD
+[ -n "$KUBECTL" ] || KUBECTL=kubectl
+POD=$($KUBECTL get pod -l app=${serviceName} -o jsonpath="{.items[0].metadata.name}")
+$KUBECTL logs -f $POD
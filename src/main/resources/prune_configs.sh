@@ -0,0 +1,22 @@
+#!/bin/sh
+# Deletes the immutable ConfigMaps of ${serviceName} left behind by earlier rollouts, keeping the ConfigMaps of the
+# ${configMapRetention} most recent generations (for rollbacks) and any ConfigMap the Deployment still references.
+# KUBECTL overrides the kubectl command.
+[ -n "$KUBECTL" ] || KUBECTL=kubectl
+KEEP=${configMapRetention}
+IN_USE=$($KUBECTL get deployment ${serviceName} -o jsonpath='{..configMapRef.name} {..configMap.name}' 2>/dev/null)
+GENERATIONS=$($KUBECTL get configmap -l app=${serviceName},k8s-utils/immutable-config=true --sort-by=.metadata.creationTimestamp \
+    -o jsonpath='{range .items[*]}{.metadata.labels.k8s-utils/config-generation}{"\n"}{end}' | awk 'NF && !seen[$0]++')
+COUNT=$(echo "$GENERATIONS" | grep -c .)
+if [ "$COUNT" -le "$KEEP" ]; then
+    echo "$COUNT generation(s) of ConfigMaps, nothing to prune"
+    exit 0
+fi
+for GENERATION in $(echo "$GENERATIONS" | head -n $((COUNT - KEEP))); do
+    for CONFIGMAP in $($KUBECTL get configmap -l k8s-utils/config-generation=$GENERATION -o jsonpath='{.items[*].metadata.name}'); do
+        case " $IN_USE " in
+            *" $CONFIGMAP "*) echo "Keeping $CONFIGMAP, still referenced by the deployment" ;;
+            *) $KUBECTL delete configmap $CONFIGMAP ;;
+        esac
+    done
+done
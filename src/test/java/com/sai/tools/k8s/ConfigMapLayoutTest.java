@@ -0,0 +1,140 @@
+package com.sai.tools.k8s;
+
+import org.junit.Test;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConfigMapLayoutTest {
+
+    private static final String[][] AWKWARD = {
+            {"plain", "value"},
+            {"a=b", "c=d"},
+            {"host:port", "http://localhost:8080/x"},
+            {"#not-a-comment", "#not a comment either"},
+            {"!bang", "!value"},
+            {"C:\\dir\\file", "C:\\dir\\file\\"},
+            {"caf\u00e9.\u65e5\u672c", "\u00fcber \u2713 \ud83d\ude00"},
+            {" leading space", "  leading spaces"},
+            {"trailing", "spaces  "},
+            {"tab\tkey", "line\nbreak\r\tand\fform feed"},
+            {"empty", ""},
+    };
+
+    @Test
+    public void propertyLinesReadBackAsWritten() throws IOException {
+        StringBuilder file = new StringBuilder();
+        for (String[] property : AWKWARD) {
+            file.append(ConfigMapLayout.propertyLine(property[0], property[1]));
+        }
+        Properties properties = new Properties();
+        properties.load(new StringReader(file.toString()));
+        assertEquals(AWKWARD.length, properties.size());
+        for (String[] property : AWKWARD) {
+            assertEquals(property[0], property[1], properties.getProperty(property[0]));
+        }
+    }
+
+    @Test
+    public void propertyLinesAreAscii() {
+        for (String[] property : AWKWARD) {
+            String line = ConfigMapLayout.propertyLine(property[0], property[1]);
+            assertTrue(line, line.chars().allMatch(c -> c < 0x7f));
+            assertTrue(line, line.indexOf('\n') == line.length() - 1);
+        }
+    }
+
+    @Test
+    public void propertiesFileReadsBackThroughTheConfigMap() throws IOException {
+        SortedMap<Object, Object> expected = new TreeMap<>();
+        for (String[] property : AWKWARD) {
+            expected.put(property[0], property[1]);
+        }
+        ConfigMapLayout layout = ConfigMapLayout.propertiesFile("svc-config", expected, 0, false);
+        assertEquals(1, layout.shards().size());
+        assertEquals(expected, new TreeMap<>(readBack(layout.shards().get(0))));
+    }
+
+    @Test
+    public void propertiesFileShardsKeepEveryProperty() throws IOException {
+        SortedMap<Object, Object> expected = new TreeMap<>();
+        for (int i = 0; i < 50; i++) {
+            expected.put("key" + i + "=:#", "value \u00e9 " + i);
+        }
+        ConfigMapLayout layout = ConfigMapLayout.propertiesFile("svc-config", expected, 400, false);
+        assertTrue(layout.shards().size() > 1);
+        Properties all = new Properties();
+        for (ConfigMapLayout.Shard shard : layout.shards()) {
+            all.putAll(readBack(shard));
+        }
+        assertEquals(expected, new TreeMap<>(all));
+    }
+
+    @Test
+    public void shardsWithOnlyCompressedValuesHaveNoDataBlock() {
+        SortedMap<Object, Object> properties = new TreeMap<>();
+        properties.put("A_KEY", "a");
+        properties.put("B_CERT", "0123456789abcdefghij");
+        ConfigMapLayout layout = ConfigMapLayout.of("svc-config", properties, 66, 10, true);
+        assertEquals(2, layout.shards().size());
+        ConfigMapLayout.Shard compressedOnly = layout.shards().get(1);
+        assertEquals("", compressedOnly.renderData());
+        assertTrue(compressedOnly.renderBinaryData(), compressedOnly.renderBinaryData().startsWith("binaryData:\n  "));
+
+        CompiledTemplate template = CompiledTemplate.fromClasspath("configmap-template.yml");
+        for (ConfigMapLayout.Shard shard : layout.shards()) {
+            String configMap = template.render(variable -> {
+                switch (variable) {
+                    case "configMapTemplateName":
+                        return shard.name();
+                    case "configMapLabels":
+                        return layout.labels("svc");
+                    case "configMapImmutable":
+                        return layout.immutableField();
+                    case "properties":
+                        return shard.renderData();
+                    default:
+                        return shard.renderBinaryData();
+                }
+            });
+            ManifestValidator.Findings findings = new ManifestValidator.Findings();
+            ManifestValidator.validate("configmap.yml", configMap, findings);
+            assertEquals(configMap, Collections.emptyList(), findings.errors());
+            assertEquals(configMap, Collections.emptyList(), findings.warnings());
+        }
+    }
+
+    @Test
+    public void compressedValuesAreNamedAfterTheirProperties() {
+        assertEquals("my-app.url.gz", ConfigMapLayout.compressedFileName("MYAPP_URL", "my-app.url"));
+        assertEquals("foo_list.0.gz", ConfigMapLayout.compressedFileName("FOO_LIST_0", "foo_list[0]"));
+        assertEquals("a.b.1.c.gz", ConfigMapLayout.compressedFileName("A_B_1_C", "a.b[1].c"));
+        assertEquals("my.cert.pem.gz", ConfigMapLayout.compressedFileName("MY_CERT_PEM", null));
+        assertEquals("my.key.gz", ConfigMapLayout.compressedFileName("MY_KEY", "my key"));
+
+        SortedMap<Object, Object> properties = new TreeMap<>();
+        properties.put("MYAPP_URL", "http://localhost:8080/my-app");
+        ConfigMapLayout layout = ConfigMapLayout.of("svc-config", properties, 0, 10, false,
+                Collections.singletonMap("MYAPP_URL", "my-app.url"));
+        assertTrue(layout.shards().get(0).renderBinaryData(), layout.shards().get(0).renderBinaryData().startsWith("binaryData:\n  my-app.url.gz: "));
+    }
+
+    /**
+     * Parses the data of the shard as YAML, the way the API server does, then its file as Spring would.
+     */
+    private static Properties readBack(final ConfigMapLayout.Shard shard) throws IOException {
+        Map<?, ?> data = (Map<?, ?>) new Yaml().<Map<?, ?>>load(shard.renderData()).get("data");
+        Properties properties = new Properties();
+        properties.load(new StringReader((String) data.get(ConfigMapLayout.PROPERTIES_FILE)));
+        return properties;
+    }
+}
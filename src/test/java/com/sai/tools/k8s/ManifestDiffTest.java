@@ -0,0 +1,152 @@
+package com.sai.tools.k8s;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ManifestDiffTest {
+
+    private static final String CONFIG_MAP = "apiVersion: v1\n"
+            + "kind: ConfigMap\n"
+            + "metadata:\n"
+            + "  name: svc-config\n"
+            + "data:\n"
+            + "  random: \"1\"\n"
+            + "  SERVER_PORT: \"8080\"\n"
+            + "  GREETING: \"hello\"\n";
+
+    private static final String DEPLOYMENT = "apiVersion: apps/v1\n"
+            + "kind: Deployment\n"
+            + "metadata:\n"
+            + "  name: svc\n"
+            + "  namespace: apps\n"
+            + "spec:\n"
+            + "  replicas: 2\n"
+            + "  template:\n"
+            + "    spec:\n"
+            + "      containers:\n"
+            + "        - name: svc\n"
+            + "          image: repo/svc:1.0\n"
+            + "          args: [--a, --b]\n";
+
+    private static final String MANIFESTS = CONFIG_MAP + "---\n" + DEPLOYMENT;
+
+    @Test
+    public void identicalManifestsHaveNoChanges() {
+        ManifestDiff diff = ManifestDiff.between(MANIFESTS, MANIFESTS);
+        assertFalse(diff.isChanged());
+        assertFalse(diff.needsRestart());
+        assertEquals("no changes", diff.summary());
+        assertEquals(Collections.emptyMap(), diff.patchFiles());
+        assertEquals("{\n  \"environment\": \"dev\",\n  \"changed\": false,\n  \"restart\": false,\n  \"documents\": []\n}\n",
+                diff.toJson("dev"));
+    }
+
+    @Test
+    public void aNewRandomAloneIsNoChange() {
+        ManifestDiff diff = ManifestDiff.between(MANIFESTS, MANIFESTS.replace("random: \"1\"", "random: \"2\""));
+        assertFalse(diff.isChanged());
+    }
+
+    @Test
+    public void patchesChangedAddedAndRemovedConfigMapValues() {
+        String current = MANIFESTS.replace("  SERVER_PORT: \"8080\"\n", "  SERVER_PORT: \"9090\"\n")
+                .replace("  GREETING: \"hello\"\n", "  LOCALE: \"en\"\n")
+                .replace("random: \"1\"", "random: \"2\"");
+        ManifestDiff diff = ManifestDiff.between(MANIFESTS, current);
+        assertEquals(1, diff.changes().size());
+        ManifestDiff.Change change = diff.changes().get(0);
+        assertEquals(ManifestDiff.Type.MODIFIED, change.type());
+        assertEquals(new TreeSet<>(Arrays.asList("data.GREETING", "data.LOCALE", "data.SERVER_PORT")), change.paths());
+        assertEquals(Collections.singletonMap("00_configmap_-_svc-config.json",
+                "{\"data\": {\"GREETING\": null, \"random\": \"2\", \"SERVER_PORT\": \"9090\", \"LOCALE\": \"en\"}}\n"), diff.patchFiles());
+        assertTrue(diff.needsRestart());
+        assertEquals("ConfigMap svc-config: 3 value(s)", diff.summary());
+        assertEquals("{\n"
+                + "  \"environment\": \"dev\",\n"
+                + "  \"changed\": true,\n"
+                + "  \"restart\": true,\n"
+                + "  \"documents\": [\n"
+                + "    {\"change\": \"modified\", \"kind\": \"ConfigMap\", \"namespace\": null, \"name\": \"svc-config\","
+                + " \"paths\": [\"data.GREETING\", \"data.LOCALE\", \"data.SERVER_PORT\"]}\n"
+                + "  ]\n"
+                + "}\n", diff.toJson("dev"));
+    }
+
+    @Test
+    public void removedSectionsArePatchedToNull() {
+        ManifestDiff diff = ManifestDiff.between(MANIFESTS, MANIFESTS.replace("  replicas: 2\n", ""));
+        ManifestDiff.Change change = diff.changes().get(0);
+        assertEquals(Collections.singleton("spec.replicas"), change.paths());
+        assertEquals("{\"spec\": {\"replicas\": null}}\n", diff.patchFiles().get("00_deployment_apps_svc.json"));
+        assertFalse(diff.needsRestart());
+    }
+
+    @Test
+    public void listsArePatchedWhole() {
+        ManifestDiff diff = ManifestDiff.between(MANIFESTS, MANIFESTS.replace("repo/svc:1.0", "repo/svc:1.1"));
+        ManifestDiff.Change change = diff.changes().get(0);
+        assertEquals(Collections.singleton("spec.template.spec.containers[0].image"), change.paths());
+        assertEquals("{\"spec\": {\"template\": {\"spec\": {\"containers\": [{\"name\": \"svc\", \"image\": \"repo/svc:1.1\","
+                + " \"args\": [\"--a\", \"--b\"]}]}}}}\n", diff.patchFiles().get("00_deployment_apps_svc.json"));
+        assertEquals("Deployment svc: image", diff.summary());
+        assertFalse("the new pod template rolls the pods out", diff.needsRestart());
+    }
+
+    @Test
+    public void listsOfAnotherLengthAreOneChange() {
+        ManifestDiff diff = ManifestDiff.between(MANIFESTS, MANIFESTS.replace("[--a, --b]", "[--a]"));
+        ManifestDiff.Change change = diff.changes().get(0);
+        assertEquals(Collections.singleton("spec.template.spec.containers[0].args"), change.paths());
+        assertEquals("{\"spec\": {\"template\": {\"spec\": {\"containers\": [{\"name\": \"svc\", \"image\": \"repo/svc:1.0\","
+                + " \"args\": [\"--a\"]}]}}}}\n", diff.patchFiles().get("00_deployment_apps_svc.json"));
+    }
+
+    @Test
+    public void comparesPropertiesFilesByProperty() {
+        String previous = "apiVersion: v1\nkind: ConfigMap\nmetadata:\n  name: svc-config\ndata:\n"
+                + "  application.properties: |\n    a=1\n    b=2\n    random=1\n";
+        ManifestDiff diff = ManifestDiff.between(previous, previous.replace("b=2", "b=3").replace("random=1", "random=2"));
+        assertEquals(Collections.singleton("data.application.properties[b]"), diff.changes().get(0).paths());
+        assertFalse(ManifestDiff.between(previous, previous.replace("random=1", "random=2")).isChanged());
+    }
+
+    @Test
+    public void addsAndRemovesWholeDocuments() {
+        String service = "apiVersion: v1\nkind: Service\nmetadata:\n  name: svc\n  namespace: apps\nspec:\n  type: ClusterIP\n";
+        ManifestDiff diff = ManifestDiff.between(CONFIG_MAP + "---\n" + service, MANIFESTS);
+        assertEquals(2, diff.changes().size());
+        assertEquals(ManifestDiff.Type.ADDED, diff.changes().get(0).type());
+        assertEquals("Deployment", diff.changes().get(0).kind());
+        assertEquals(ManifestDiff.Type.REMOVED, diff.changes().get(1).type());
+        assertEquals("Service", diff.changes().get(1).kind());
+        assertEquals("apps", diff.changes().get(1).namespace());
+        assertEquals("Deployment svc: added; Service svc: removed", diff.summary());
+        Map<String, String> files = diff.patchFiles();
+        assertEquals(Collections.singleton("00_deployment_apps_svc.yml"), files.keySet());
+        assertEquals(DEPLOYMENT.trim(), files.get("00_deployment_apps_svc.yml").trim());
+    }
+
+    @Test
+    public void everythingIsAddedWithoutPreviousManifests() {
+        ManifestDiff diff = ManifestDiff.between(null, MANIFESTS);
+        assertEquals(Arrays.asList("00_configmap_-_svc-config.yml", "01_deployment_apps_svc.yml"),
+                Arrays.asList(diff.patchFiles().keySet().toArray()));
+        assertFalse(diff.needsRestart());
+    }
+
+    @Test
+    public void documentsThatDoNotSplitIntoSectionsAreParsedWhole() {
+        String previous = "{apiVersion: v1, kind: ConfigMap, metadata: {name: svc-config}, data: {A: \"1\", B: \"2\"}}\n";
+        ManifestDiff diff = ManifestDiff.between(previous, previous.replace(", B: \"2\"", ""));
+        assertEquals(Collections.singleton("data.B"), diff.changes().get(0).paths());
+        assertEquals("{\"data\": {\"B\": null}}\n", diff.patchFiles().get("00_configmap_-_svc-config.json"));
+    }
+}
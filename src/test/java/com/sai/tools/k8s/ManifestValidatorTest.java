@@ -0,0 +1,158 @@
+package com.sai.tools.k8s;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ManifestValidatorTest {
+
+    private static final String CONFIG_MAP = "apiVersion: v1\n"
+            + "kind: ConfigMap\n"
+            + "metadata:\n"
+            + "  name: svc-config\n"
+            + "data:\n"
+            + "  SERVER_PORT: \"8080\"\n"
+            + "  GREETING: \"hello ${SERVER_PORT}\"\n";
+
+    private static final String DEPLOYMENT = "apiVersion: apps/v1\n"
+            + "kind: Deployment\n"
+            + "metadata:\n"
+            + "  name: svc\n"
+            + "  labels:\n"
+            + "    app: svc\n"
+            + "spec:\n"
+            + "  replicas: 2\n"
+            + "  selector:\n"
+            + "    matchLabels:\n"
+            + "      app: svc\n"
+            + "  template:\n"
+            + "    metadata:\n"
+            + "      labels:\n"
+            + "        app: svc\n"
+            + "    spec:\n"
+            + "      containers:\n"
+            + "        - name: svc\n"
+            + "          image: repo/svc:1.0\n"
+            + "          ports:\n"
+            + "            - containerPort: 8080\n"
+            + "          envFrom:\n"
+            + "            - configMapRef:\n"
+            + "                name: svc-config\n";
+
+    @Test
+    public void acceptsValidManifests() {
+        ManifestValidator.Findings findings = validate(CONFIG_MAP + "---\n" + DEPLOYMENT);
+        assertEquals(findings.errors().toString(), 0, findings.errors().size());
+        assertEquals(findings.warnings().toString(), 0, findings.warnings().size());
+    }
+
+    @Test
+    public void rejectsNonNumericPorts() {
+        ManifestValidator.Findings findings = validate(DEPLOYMENT.replace("containerPort: 8080", "containerPort: http"));
+        assertOnly(findings.errors(), "spec.template.spec.containers[0].ports[0].containerPort: expected an integer, got \"http\"");
+        assertEquals(0, findings.warnings().size());
+    }
+
+    @Test
+    public void rejectsPortsOutOfRange() {
+        ManifestValidator.Findings findings = validate(DEPLOYMENT.replace("containerPort: 8080", "containerPort: 70000"));
+        assertOnly(findings.errors(), "containerPort: 70000 is more than 65535");
+    }
+
+    @Test
+    public void rejectsUnresolvedPlaceholdersOutsideConfigMapData() {
+        ManifestValidator.Findings findings = validate(DEPLOYMENT.replace("image: repo/svc:1.0", "image: repo/svc:${VERSION}"));
+        assertOnly(findings.errors(), "spec.template.spec.containers[0].image: unresolved placeholder ${VERSION}");
+    }
+
+    @Test
+    public void rejectsInvalidNamesAndMissingRequiredFields() {
+        ManifestValidator.Findings findings = validate(DEPLOYMENT.replace("name: svc\n  labels", "name: Svc_1\n  labels")
+                .replace("        - name: svc\n", "        - image: x\n"));
+        assertEquals(findings.errors().toString(), 2, findings.errors().size());
+        assertContains(findings.errors(), "metadata.name: \"Svc_1\" does not match");
+        assertContains(findings.errors(), "spec.template.spec.containers[0].name: is required");
+    }
+
+    @Test
+    public void acceptsNullOptionalFields() {
+        ManifestValidator.Findings findings = validate(CONFIG_MAP.substring(0, CONFIG_MAP.indexOf("\ndata:") + 1) + "data:\n---\n"
+                + DEPLOYMENT.replace("  replicas: 2\n", "  replicas:\n  strategy: null\n"));
+        assertEquals(findings.errors().toString(), 0, findings.errors().size());
+        assertEquals(findings.warnings().toString(), 0, findings.warnings().size());
+    }
+
+    @Test
+    public void rejectsNullRequiredFields() {
+        ManifestValidator.Findings findings = validate(DEPLOYMENT.replace("        - name: svc\n", "        - name:\n"));
+        assertOnly(findings.errors(), "spec.template.spec.containers[0].name: has no value");
+    }
+
+    @Test
+    public void rejectsWronglyTypedValues() {
+        ManifestValidator.Findings findings = validate(CONFIG_MAP.replace("SERVER_PORT: \"8080\"", "SERVER_PORT: 8080"));
+        assertOnly(findings.errors(), "data.SERVER_PORT: expected a string, got 8080 (quote it)");
+    }
+
+    @Test
+    public void rejectsInvalidYaml() {
+        ManifestValidator.Findings findings = validate("kind: [ConfigMap\n");
+        assertOnly(findings.errors(), "manifests.yml: not valid YAML");
+    }
+
+    @Test
+    public void warnsAboutUnknownFields() {
+        ManifestValidator.Findings findings = validate(DEPLOYMENT.replace("  replicas: 2\n", "  replica: 2\n"));
+        assertEquals(0, findings.errors().size());
+        assertOnly(findings.warnings(), "spec.replica: unknown field");
+    }
+
+    @Test
+    public void warnsAboutReferencesToMissingConfigMapProperties() {
+        ManifestValidator.Findings findings = validate(CONFIG_MAP.replace("${SERVER_PORT}", "${server.host}")
+                + "  DEFAULTED: \"${missing:none}\"\n");
+        assertEquals(0, findings.errors().size());
+        assertOnly(findings.warnings(), "data.GREETING: ${server.host} names no property of the ConfigMaps");
+    }
+
+    @Test
+    public void resolvesReferencesInPropertiesFilesAcrossConfigMaps() {
+        String file = "apiVersion: v1\n"
+                + "kind: ConfigMap\n"
+                + "metadata:\n"
+                + "  name: svc-config-1\n"
+                + "data:\n"
+                + "  application.properties: |\n"
+                + "    server.url=http://${server.host}:${SERVER_PORT}\n"
+                + "    server.host=localhost\n"
+                + "    client.url=${client.host}\n";
+        ManifestValidator.Findings findings = validate(CONFIG_MAP + "---\n" + file);
+        assertEquals(0, findings.errors().size());
+        assertOnly(findings.warnings(), "data.application.properties[client.url]: ${client.host} names no property");
+    }
+
+    @Test
+    public void warnsAboutKindsWithoutSchema() {
+        ManifestValidator.Findings findings = validate("apiVersion: networking.k8s.io/v1\nkind: Ingress\nmetadata:\n  name: svc\n");
+        assertEquals(0, findings.errors().size());
+        assertOnly(findings.warnings(), "no schema for apiVersion networking.k8s.io/v1, not checked");
+    }
+
+    private static ManifestValidator.Findings validate(final String manifests) {
+        ManifestValidator.Findings findings = new ManifestValidator.Findings();
+        ManifestValidator.validate("manifests.yml", manifests, findings);
+        return findings;
+    }
+
+    private static void assertOnly(final List<String> findings, final String expected) {
+        assertEquals(findings.toString(), 1, findings.size());
+        assertContains(findings, expected);
+    }
+
+    private static void assertContains(final List<String> findings, final String expected) {
+        assertTrue(findings + " should contain " + expected, findings.stream().anyMatch(finding -> finding.contains(expected)));
+    }
+}
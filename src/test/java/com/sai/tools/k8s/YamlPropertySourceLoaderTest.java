@@ -0,0 +1,146 @@
+package com.sai.tools.k8s;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class YamlPropertySourceLoaderTest {
+
+    @Test
+    public void flattensNestedMapsAndLists() {
+        Properties properties = base(
+                "server:\n"
+                        + "  port: 8080\n"
+                        + "  hosts: [a, b]\n"
+                        + "  routes:\n"
+                        + "    - path: /x\n"
+                        + "      timeout: 3\n"
+                        + "    - path: /y\n"
+                        + "empty:\n");
+        assertEquals("8080", properties.getProperty("server.port"));
+        assertEquals("a", properties.getProperty("server.hosts[0]"));
+        assertEquals("b", properties.getProperty("server.hosts[1]"));
+        assertEquals("/x", properties.getProperty("server.routes[0].path"));
+        assertEquals("3", properties.getProperty("server.routes[0].timeout"));
+        assertEquals("/y", properties.getProperty("server.routes[1].path"));
+        assertEquals("", properties.getProperty("empty"));
+    }
+
+    @Test
+    public void resolvesAnchorsOfScalarsMapsAndLists() {
+        Properties properties = base(
+                "defaults:\n"
+                        + "  host: &host db.local\n"
+                        + "  pool: &pool {min: 1, max: 5}\n"
+                        + "  zones: &zones [eu, us]\n"
+                        + "primary:\n"
+                        + "  host: *host\n"
+                        + "  pool: *pool\n"
+                        + "  zones: *zones\n");
+        assertEquals("db.local", properties.getProperty("primary.host"));
+        assertEquals("1", properties.getProperty("primary.pool.min"));
+        assertEquals("5", properties.getProperty("primary.pool.max"));
+        assertEquals("eu", properties.getProperty("primary.zones[0]"));
+        assertEquals("us", properties.getProperty("primary.zones[1]"));
+    }
+
+    @Test
+    public void mergesKeysTheMappingDoesNotDefine() {
+        Properties properties = base(
+                "d: &d {timeout: 5, retries: 2}\n"
+                        + "svc:\n"
+                        + "  <<: *d\n"
+                        + "  name: svc\n");
+        assertEquals("5", properties.getProperty("svc.timeout"));
+        assertEquals("2", properties.getProperty("svc.retries"));
+        assertEquals("svc", properties.getProperty("svc.name"));
+        assertNull(properties.getProperty("svc"));
+    }
+
+    @Test
+    public void explicitKeysWinOverMergedOnesWhereverTheyAppear() {
+        Properties properties = base(
+                "d: &d {timeout: 5, retries: 2}\n"
+                        + "before: {timeout: 10, <<: *d}\n"
+                        + "after: {<<: *d, timeout: 10}\n");
+        assertEquals("10", properties.getProperty("before.timeout"));
+        assertEquals("2", properties.getProperty("before.retries"));
+        assertEquals("10", properties.getProperty("after.timeout"));
+        assertEquals("2", properties.getProperty("after.retries"));
+    }
+
+    @Test
+    public void explicitMapsReplaceMergedMapsWhole() {
+        Properties properties = base(
+                "d: &d {db: {url: jdbc:a, user: sa}}\n"
+                        + "svc:\n"
+                        + "  db: {url: jdbc:b}\n"
+                        + "  <<: *d\n");
+        assertEquals("jdbc:b", properties.getProperty("svc.db.url"));
+        assertFalse(properties.containsKey("svc.db.user"));
+    }
+
+    @Test
+    public void firstMergedMapWinsInAMergeList() {
+        Properties properties = base(
+                "a: &a {x: 1}\n"
+                        + "b: &b {x: 2, y: 2}\n"
+                        + "svc:\n"
+                        + "  <<: [*a, *b]\n"
+                        + "  z: 3\n");
+        assertEquals("1", properties.getProperty("svc.x"));
+        assertEquals("2", properties.getProperty("svc.y"));
+        assertEquals("3", properties.getProperty("svc.z"));
+        assertNull(properties.getProperty("svc[0].x"));
+    }
+
+    @Test
+    public void anchorsOfMappingsWithMergeKeysHoldTheMergedResult() {
+        Properties properties = base(
+                "d: &d {timeout: 5, retries: 2}\n"
+                        + "svc: &svc {timeout: 10, <<: *d}\n"
+                        + "copy: *svc\n");
+        assertEquals("10", properties.getProperty("copy.timeout"));
+        assertEquals("2", properties.getProperty("copy.retries"));
+    }
+
+    @Test
+    public void assignsProfileDocumentsToTheirProfiles() {
+        Map<String, Properties> environments = YamlPropertySourceLoader.load(new StringReader(
+                "port: 80\n"
+                        + "---\n"
+                        + "spring:\n"
+                        + "  profiles: dev, test\n"
+                        + "port: 81\n"
+                        + "---\n"
+                        + "spring.config.activate.on-profile: prod\n"
+                        + "port: 82\n"
+                        + "---\n"
+                        + "spring.profiles: '!prod'\n"
+                        + "port: 83\n"), "");
+        assertEquals(Arrays.asList("", "dev", "test", "prod"), Arrays.asList(environments.keySet().toArray()));
+        assertEquals("80", environments.get("").getProperty("port"));
+        assertEquals("81", environments.get("dev").getProperty("port"));
+        assertEquals("81", environments.get("test").getProperty("port"));
+        assertEquals("82", environments.get("prod").getProperty("port"));
+        assertFalse(environments.get("dev").containsKey("spring.profiles"));
+    }
+
+    @Test
+    public void assignsPlainDocumentsToTheProfileOfTheFile() {
+        Map<String, Properties> environments = YamlPropertySourceLoader.load(new StringReader("port: 80\n"), "qa");
+        assertEquals("80", environments.get("qa").getProperty("port"));
+        assertEquals(1, environments.size());
+    }
+
+    private static Properties base(final String yaml) {
+        return YamlPropertySourceLoader.load(new StringReader(yaml), "").get("");
+    }
+}